@@ -1,19 +1,47 @@
 import tinyb.*;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.text.SimpleDateFormat;
+import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.util.*;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import gateway.AcquisitionClock;
+import gateway.BatchEncoder;
+import gateway.BatchPolicy;
+import gateway.Batcher;
+import gateway.BinaryBatchEncoder;
+import gateway.CallWatchdog;
+import gateway.DeadbandFilter;
+import gateway.DeviceDiscovery;
+import gateway.DeviceSessionManager;
+import gateway.FileSink;
+import gateway.GattLayoutCache;
+import gateway.JsonBatchEncoder;
+import gateway.LatencyHistogram;
+import gateway.Metrics;
+import gateway.NotificationPump;
+import gateway.QueryServer;
+import gateway.RecentSamples;
+import gateway.Sample;
+import gateway.SampleArchive;
+import gateway.SampleLineRenderer;
+import gateway.SamplePool;
+import gateway.SensorIds;
+import gateway.Spool;
+import gateway.TimeSeriesStore;
+import gateway.TimestampFormatter;
+import gateway.SpoolForwarder;
+import gateway.TinybSensorTagLink;
+import gateway.Uplink;
+import gateway.WindowAggregator;
 
 public class HelloTinyB {
 //    private static final float SCALE_LSB = 0.03125f;
-    static boolean running = true;
+    static volatile boolean running = true;
 
     static void printDevice(BluetoothDevice device) {
         System.out.print("Address = " + device.getAddress());
@@ -22,393 +50,268 @@ public class HelloTinyB {
         System.out.println();
     }
 
-    static float convertCelsius(int raw) {
-        return raw / 128f;
-    }  
-    static float Gyroconvert(int raw) {
-        return raw / (65536f / 500f);
-    }
-    static float Accconvert(int raw) {
-        return raw / (32768f / 2f);
-    } 
-    static float Magconvert(int raw) {
-        return raw * 1f;
-    }
-    static float Lightconvert(int raw) {
-        int m = raw & 0x0FFF;
-        int e = (raw & 0xF000)>>12;
-    	return (float) (m * ( 0.01 * Math.pow (2.0 , e)));
-    }
-  
     /*
-     * After discovery is started, new devices will be detected. We can get a list of all devices through the manager's
-     * getDevices method. We can the look through the list of devices to find the device with the MAC which we provided
-     * as a parameter. We continue looking until we find it, or we try 15 times (1 minutes).
-     */
-    static BluetoothDevice getDevice(String address) throws InterruptedException {
-        BluetoothManager manager = BluetoothManager.getBluetoothManager();
-        BluetoothDevice sensor = null;
-        for (int i = 0; (i < 15) && running; ++i) {
-            List<BluetoothDevice> list = manager.getDevices();
-            if (list == null)
-                return null;
-
-            for (BluetoothDevice device : list) {
-                printDevice(device);
-                /*
-                 * Here we check if the address matches.
-                 */
-                if (device.getAddress().equals(address))
-                    sensor = device;
-            }
-
-            if (sensor != null) {
-                return sensor;
-            }
-            Thread.sleep(4000);
-        }
-        return null;
-    }
-
-    /*
-     * Our device should expose a temperature service, which has a UUID we can find out from the data sheet. The service
-     * description of the SensorTag can be found here:
-     * http://processors.wiki.ti.com/images/a/a8/BLE_SensorTag_GATT_Server.pdf. The service we are looking for has the
-     * short UUID AA00 which we insert into the TI Base UUID: f000XXXX-0451-4000-b000-000000000000
-     */
-    static BluetoothGattService getService(BluetoothDevice device, String UUID) throws InterruptedException {
-        System.out.println("Services exposed by device:");
-        BluetoothGattService tempService = null;
-        List<BluetoothGattService> bluetoothServices = null;
-        do {
-            bluetoothServices = device.getServices();
-            if (bluetoothServices == null)
-                return null;
-
-            for (BluetoothGattService service : bluetoothServices) {
-                System.out.println("UUID: " + service.getUuid());
-                if (service.getUuid().equals(UUID))
-                    tempService = service;
-            }
-            Thread.sleep(4000);
-        } while (bluetoothServices.isEmpty() && running);
-        return tempService;
-    }
-
-    static BluetoothGattCharacteristic getCharacteristic(BluetoothGattService service, String UUID) {
-        List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-        if (characteristics == null)
-            return null;
-
-        for (BluetoothGattCharacteristic characteristic : characteristics) {
-            if (characteristic.getUuid().equals(UUID))
-                return characteristic;
-        }
-        return null;
-    }
-
-    /*
-     * This program connects to a TI SensorTag 2.0 and reads the temperature characteristic exposed by the device over
-     * Bluetooth Low Energy. The parameter provided to the program should be the MAC address of the device.
+     * This program connects to one or more TI SensorTag 2.0 and streams their sensors over Bluetooth Low Energy. The
+     * parameters provided to the program should be the MAC addresses of the devices.
      *
      * A wiki describing the sensor is found here: http://processors.wiki.ti.com/index.php/CC2650_SensorTag_User's_Guide
      *
-     * The API used in this example is based on TinyB v0.3, which only supports polling, but v0.4 will introduce a
-     * simplied API for discovering devices and services.
+     * Each tag is owned by its own device session, which connects it, enables its sensors and reconnects it when it
+     * drops; all sessions feed the same uplink and local log.
      */
     public static void main(String[] args) throws InterruptedException, IOException {
 
         if (args.length < 1) {
-            System.err.println("Run with <device_address> argument");
-            System.exit(-1);
-        }
-        String path="/home/root/tinyb-master/tinyb-master/examples/java/SensorTagData.txt";
-        File f = new File(path);
-        PrintWriter outToFile = new PrintWriter(new FileOutputStream(f, true));
-        
-        
-       
-        /*
-         * To start looking of the device, we first must initialize the TinyB library. The way of interacting with the
-         * library is through the BluetoothManager. There can be only one BluetoothManager at one time, and the
-         * reference to it is obtained through the getBluetoothManager method.
-         */
-        BluetoothManager manager = BluetoothManager.getBluetoothManager();
-
-        /*
-         * The manager will try to initialize a BluetoothAdapter if any adapter is present in the system. To initialize
-         * discovery we can call startDiscovery, which will put the default adapter in discovery mode.
-         */
-        boolean discoveryStarted = manager.startDiscovery();
-
-        System.out.println("The discovery started: " + (discoveryStarted ? "true" : "false"));
-        BluetoothDevice sensor = getDevice(args[0]);
-
-        /*
-         * After we find the device we can stop looking for other devices.
-         */
-        manager.stopDiscovery();
-
-        if (sensor == null) {
-            System.err.println("No sensor found with the provided address.");
+            System.err.println("Run with <device_address>... arguments");
             System.exit(-1);
         }
 
-        System.out.print("Found device: ");
-        printDevice(sensor);
-
-        if (sensor.connect())
-            System.out.println("Sensor with the provided address connected");
-        else {
-            System.out.println("Could not connect device.");
-            System.exit(-1);
-        }
-        
         final Thread mainThread = Thread.currentThread();
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
                 running = false;
-                sensor.disconnect();
-              
+                mainThread.interrupt();
+                try {
+                    mainThread.join(15000);
+                } catch (InterruptedException e) {
+                }
             }
         });
 
+        /*
+         * Readings are batched before they go to the collector, so per-message overhead is paid once per batch rather
+         * than once per reading. Batches are first appended to a spool on disk; a forwarder thread sends them as
+         * frames on the collector connection and removes them from the spool once the collector acknowledges them,
+         * so a collector outage only builds a backlog.
+         */
+        /*
+         * Latencies of every stage (Bluetooth calls, decoding, encoding, the uplink) and counts of samples, bytes,
+         * reconnects and errors are exported as gateway:* MBeans and written to metrics.file every metrics.period
+         * milliseconds.
+         */
+        Closeable metrics = Metrics.startReporter(new File(System.getProperty("metrics.file", "metrics.txt")),
+                Long.getLong("metrics.period", 60000));
+
+        Uplink uplink = new Uplink("117.16.146.58", 55555);
+        final Spool spool = new Spool(new File(System.getProperty("spool.dir", "spool")), 4 * 1024 * 1024,
+                Long.getLong("spool.budget", 64L * 1024 * 1024));
+        SpoolForwarder forwarder = new SpoolForwarder(spool, uplink);
+        forwarder.start();
+        /*
+         * Old collectors expect JSON; uplink.format=binary switches to the compact binary batches instead. With more
+         * than one tag every JSON record names its device.
+         */
+        final BatchEncoder<Sample> encoder = "binary".equals(System.getProperty("uplink.format", "json"))
+                ? new BinaryBatchEncoder() : new JsonBatchEncoder(args.length > 1);
+        final SamplePool samples = new SamplePool(1024);
+        final LatencyHistogram encodeTime = Metrics.histogram(
+                encoder instanceof BinaryBatchEncoder ? "encode.binary" : "encode.json");
+        BatchPolicy uplinkPolicy = BatchPolicy.fromSystemProperties("uplink", new BatchPolicy(200, 64 * 1024, 5000));
+        Batcher<Sample> uplinkBatcher = new Batcher<Sample>(uplinkPolicy, encoder::sizeOf,
+                batch -> {
+                    try {
+                        long start = System.nanoTime();
+                        byte[] payload = encoder.encode(batch);
+                        encodeTime.recordSince(start);
+                        spool.append(payload);
+                    } catch (IOException e) {
+                        System.err.println("Could not spool batch: " + e);
+                    }
+                    samples.releaseAll(batch);
+                });
 
-        BluetoothGattService tempService = getService(sensor, "f000aa00-0451-4000-b000-000000000000");
-        BluetoothGattService HumidityService = getService(sensor, "f000aa20-0451-4000-b000-000000000000");
-        BluetoothGattService MovementService = getService(sensor, "f000aa80-0451-4000-b000-000000000000");
-        BluetoothGattService PressureService = getService(sensor, "f000aa40-0451-4000-b000-000000000000");
-        BluetoothGattService OpticalService = getService(sensor, "f000aa70-0451-4000-b000-000000000000");
-
-        if (tempService == null) {
-            System.err.println("This device does not have the temperature service we are looking for.");
-            sensor.disconnect();
-            System.exit(-1);
-        }
-        if (HumidityService == null) {
-            System.err.println("This device does not have the Humidity service we are looking for.");
-            sensor.disconnect();
-            System.exit(-1);
+        /*
+         * The local data log is written by its own thread, one line per sample, so a slow SD card never delays a
+         * sensor read. It rotates daily or at 16 MiB and gzips the rotated files. log.format=archive keeps a
+         * compressed archive instead, a column of Gorilla blocks per sensor, started afresh every day.
+         */
+        final File logDir = new File(System.getProperty("log.dir", "."));
+        final Closeable dataLog;
+        final Consumer<Sample> localLog;
+        if ("archive".equals(System.getProperty("log.format", "text"))) {
+            SampleArchive archive = new SampleArchive(logDir, "SensorTagData",
+                    Integer.getInteger("archive.blockPoints", SampleArchive.DEFAULT_BLOCK_POINTS),
+                    Long.getLong("archive.blockMillis", 300000), TimeUnit.DAYS.toMillis(1), 8192, samples::release);
+            dataLog = archive;
+            localLog = archive::offer;
+        } else {
+            FileSink<Sample> text = new FileSink<Sample>(logDir, "SensorTagData",
+                    Long.getLong("log.maxBytes", 16L * 1024 * 1024), TimeUnit.DAYS.toMillis(1), 1000,
+                    Boolean.parseBoolean(System.getProperty("log.compress", "true")), 8192,
+                    new SampleLineRenderer(new TimestampFormatter()), samples::release);
+            dataLog = text;
+            localLog = text::offer;
         }
-//        System.out.println("Found service " + tempService.getUuid());
-
-        BluetoothGattCharacteristic tempValue = getCharacteristic(tempService, "f000aa01-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic tempConfig = getCharacteristic(tempService, "f000aa02-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic tempPeriod = getCharacteristic(tempService, "f000aa03-0451-4000-b000-000000000000");
 
-        BluetoothGattCharacteristic HumidityValue = getCharacteristic(HumidityService, "f000aa21-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic HumidityConfig = getCharacteristic(HumidityService, "f000aa22-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic HumidityPeriod = getCharacteristic(HumidityService, "f000aa23-0451-4000-b000-000000000000");
-        
-        BluetoothGattCharacteristic MovementValue = getCharacteristic(MovementService, "f000aa81-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic MovementConfig = getCharacteristic(MovementService, "f000aa82-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic MovementPeriod = getCharacteristic(MovementService, "f000aa83-0451-4000-b000-000000000000");
-        
-        BluetoothGattCharacteristic PressureValue = getCharacteristic(PressureService, "f000aa41-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic PressureConfig = getCharacteristic(PressureService, "f000aa42-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic PressurePeriod = getCharacteristic(PressureService, "f000aa44-0451-4000-b000-000000000000");
-        
-        BluetoothGattCharacteristic OpticalValue = getCharacteristic(OpticalService, "f000aa71-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic OpticalConfig = getCharacteristic(OpticalService, "f000aa72-0451-4000-b000-000000000000");
-        BluetoothGattCharacteristic OpticalPeriod = getCharacteristic(OpticalService, "f000aa73-0451-4000-b000-000000000000");
+        /*
+         * With store.dir set, every reading also goes to an embedded store of hourly partitions there, kept for
+         * store.hours hours, which gateway.StoreQuery reads by tag, sensor and time range.
+         */
+        String storeDir = System.getProperty("store.dir");
+        final TimeSeriesStore store = storeDir == null ? null
+                : new TimeSeriesStore(new File(storeDir), Integer.getInteger("store.hours", 72), 16384,
+                        samples::release);
 
-     
-        if (tempValue == null || tempConfig == null || tempPeriod == null ||
-        		HumidityValue == null || HumidityConfig == null || HumidityPeriod == null||
-        		MovementValue == null || MovementConfig == null || MovementPeriod == null||
-        		PressureValue == null || PressureConfig == null || PressurePeriod == null||
-        		OpticalValue == null || OpticalConfig == null || OpticalPeriod == null)
-             {
-            System.err.println("Could not find the correct characteristics.");
-            sensor.disconnect();
-            System.exit(-1);
+        /*
+         * Readings headed for the uplink that stay within the noise floor of their sensor are dropped, but the last
+         * value of a connected tag's sensor goes out at least every deadband.silence milliseconds; deadband=false
+         * sends them all.
+         */
+        Consumer<Sample> uplinkSink = uplinkBatcher::add;
+        DeadbandFilter deadband = null;
+        if (Boolean.parseBoolean(System.getProperty("deadband", "true"))) {
+            deadband = new DeadbandFilter(Long.getLong("deadband.silence", 60000), samples, uplinkSink);
+            deadband.setBand(SensorIds.OBJECT_TEMPERATURE, 0.25f, 0);
+            deadband.setBand(SensorIds.AMBIENT_TEMPERATURE, 0.1f, 0);
+            deadband.setBand(SensorIds.HUMIDITY_TEMPERATURE, 0.1f, 0);
+            deadband.setBand(SensorIds.HUMIDITY, 0.5f, 0);
+            deadband.setBand(SensorIds.PRESSURE_TEMPERATURE, 0.1f, 0);
+            deadband.setBand(SensorIds.PRESSURE, 0.05f, 0);
+            deadband.setBand(SensorIds.LIGHT, 1, 0.05f);
+            deadband.setBand(SensorIds.GYROSCOPE, 2, 0);
+            deadband.setBand(SensorIds.ACCELEROMETER, 0.02f, 0);
+            deadband.setBand(SensorIds.MAGNETOMETER, 2, 0);
+            uplinkSink = deadband;
         }
+        /*
+         * The uplink carries one summary (count, min, max, mean) per aggregate.window milliseconds of each slow
+         * scalar sensor, sliding by aggregate.slide, instead of every reading; aggregate.raw=true sends the readings
+         * as well and aggregate.window=0 only the readings. Movement vectors are sent as they are. The local log
+         * always keeps every reading.
+         */
+        long window = Long.getLong("aggregate.window", 60000);
+        final WindowAggregator aggregator = window <= 0 ? null
+                : new WindowAggregator(window, Long.getLong("aggregate.slide", window),
+                        new int[] { SensorIds.OBJECT_TEMPERATURE, SensorIds.AMBIENT_TEMPERATURE,
+                                SensorIds.HUMIDITY_TEMPERATURE, SensorIds.HUMIDITY, SensorIds.PRESSURE_TEMPERATURE,
+                                SensorIds.PRESSURE, SensorIds.LIGHT },
+                        Boolean.getBoolean("aggregate.raw"), samples, uplinkSink);
+        final Consumer<Sample> uplinkStage = aggregator != null ? aggregator : uplinkSink;
 
-        
-        System.out.println("Found the temperature characteristics");
+        /*
+         * The last query.capacity readings of every sensor are kept in memory for the LAN query endpoint.
+         */
+        final RecentSamples recent = new RecentSamples(Integer.getInteger("query.capacity", 600));
 
         /*
-         * Turn on the Temperature Service by writing 1 in the configuration characteristic, as mentioned in the PDF
-         * mentioned above. We could also modify the update interval, by writing in the period characteristic, but the
-         * default 1s is good enough for our purposes.
+         * Downstream stages get typed samples; they are turned into SensorData strings only by the JSON encoder.
+         * The local log gets its own copy of each sample, since the two sinks release them independently.
          */
-        byte[] config = { 0x01 };
-        byte[] Mconfig = { 0x7f , 0x00};
-        tempConfig.writeValue(config);
-        HumidityConfig.writeValue(config);
-        PressureConfig.writeValue(config);
-        OpticalConfig.writeValue(config);
-        
-        MovementConfig.writeValue(Mconfig);
+        Consumer<Sample> sink = s -> {
+            recent.accept(s);
+            localLog.accept(samples.acquire().copyFrom(s));
+            if (store != null)
+                store.offer(samples.acquire().copyFrom(s));
+            uplinkStage.accept(s);
+        };
+
         /*
-         * Each second read the value characteristic and display it in a human readable format.
+         * One pump serves the notifications of every tag, and every value is stamped when it arrives from a clock
+         * that cannot jump with the system time.
          */
-        
-        
-        while (running) {
-        	Socket socket = new Socket("117.16.146.58", 55555);
-            
-        	PrintStream outToServer = new PrintStream(socket.getOutputStream());
-            byte[] tempRaw = tempValue.readValue();
-            byte[] HumidityRaw = HumidityValue.readValue();
-            byte[] MovementRaw = MovementValue.readValue();
-            byte[] PressureRaw = PressureValue.readValue();
-            byte[] OpticalRaw = OpticalValue.readValue();
-            
-            List<SensorData> SensorList  = new ArrayList<SensorData>();
-            ObjectMapper mapper = new ObjectMapper();
-            Date day=new Date();
-			SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        final AcquisitionClock clock = new AcquisitionClock();
+        NotificationPump pump = new NotificationPump();
+        pump.start();
+        /*
+         * With query.port set, dashboards on the LAN can ask for the latest readings and those of the last seconds
+         * over HTTP, e.g. http://gateway:8080/recent?seconds=60&sensor=f000aa20-0451-b002.
+         */
+        Integer queryPort = Integer.getInteger("query.port");
+        QueryServer query = null;
+        if (queryPort != null) {
+            query = new QueryServer(new InetSocketAddress(queryPort), recent, clock);
+            query.start();
+            System.out.println("Answering queries on port " + queryPort);
+        }
+        /*
+         * Bluetooth calls are bounded: characteristic writes fail after gatt.timeout milliseconds, and a connect or
+         * other call without a timeout that hangs for gatt.watchdog milliseconds gets its tag disconnected and its
+         * session restarted.
+         */
+        final Duration gattTimeout = Duration.ofMillis(Long.getLong("gatt.timeout", 5000));
+        CallWatchdog watchdog = new CallWatchdog(Long.getLong("gatt.watchdog", 30000));
+        DeviceSessionManager sessions = new DeviceSessionManager(args.length, samples, sink, watchdog);
+        /*
+         * The GATT layout of each tag is remembered on disk, so after a restart a known tag goes from connect()
+         * straight to lookups by UUID and its configuration writes.
+         */
+        final GattLayoutCache layouts = new GattLayoutCache(
+                new File(System.getProperty("gatt.cache", "gatt-layout.properties")));
 
-            System.out.println("==================="+time.format(day)+"======================");
-            System.out.print("Temp raw = {");
-            for (byte b : tempRaw) {
-                System.out.print(String.format("%02x,", b));
-            }
-            System.out.println("}");
-            System.out.print("Humidity raw = {");
-            for (byte b : HumidityRaw) {
-                System.out.print(String.format("%02x,", b));
-            }
-            System.out.println("}");
+        /*
+         * To start looking of the devices, we first must initialize the TinyB library. The way of interacting with
+         * the library is through the BluetoothManager. There can be only one BluetoothManager at one time, and the
+         * reference to it is obtained through the getBluetoothManager method.
+         *
+         * One discovery session looks for all the tags at once, and each tag's session starts as soon as the tag is
+         * found. Time to first sample is measured from the start of discovery.
+         */
+        BluetoothManager manager = BluetoothManager.getBluetoothManager();
+        final long discoveryStart = System.nanoTime();
+        Map<String, BluetoothDevice> sensors = Collections.emptyMap();
+        try {
+            sensors = new DeviceDiscovery(manager).discover(Arrays.asList(args),
+                    Duration.ofSeconds(Long.getLong("discovery.seconds", 60)), (sensor, elapsedNanos) -> {
+                        System.out.print("Found device after " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                                + " ms: ");
+                        printDevice(sensor);
+                        sessions.start(new TinybSensorTagLink(sensor, clock, pump, layouts, gattTimeout), discoveryStart);
+                    });
+        } catch (InterruptedException e) {
+            /* shutting down while still looking */
+        }
+
+        if (sensors.isEmpty()) {
+            System.err.println("No sensor found with the provided addresses.");
+            running = false;
+        }
+        for (String address : args) {
+            if (!sensors.containsKey(address))
+                System.err.println("No sensor found with the address " + address);
+        }
 
-            System.out.print("Movement raw = {");
-            for (byte b : MovementRaw) {
-                System.out.print(String.format("%02x,", b));
+        boolean reported = false;
+        String states = "";
+        while (running) {
+            /* report how many tags are in each state whenever that changes */
+            String now = sessions.getStateSummary();
+            if (!now.equals(states)) {
+                System.out.println("Tags: " + now);
+                states = now;
             }
-            System.out.println("}");
-            
-            System.out.print("Pressure raw = {");
-            for (byte b : PressureRaw) {
-                System.out.print(String.format("%02x,", b));
+            long firstSample = sessions.getTimeToFirstSampleNanos();
+            if (!reported && firstSample >= 0) {
+                System.out.println("All tags streaming " + TimeUnit.NANOSECONDS.toMillis(firstSample)
+                        + " ms after discovery started");
+                reported = true;
             }
-            System.out.println("}");  
-            
-            
-            System.out.print("Optical raw = {");
-            for (byte b : OpticalRaw) {
-                System.out.print(String.format("%02x,", b));
+            /* windows of tags that went quiet are closed a second after they end */
+            if (aggregator != null)
+                aggregator.advance(clock.now() - TimeUnit.SECONDS.toNanos(1));
+            /* steady sensors are not notified, so their heartbeat comes from here */
+            if (deadband != null)
+                deadband.advance(clock.now(), sessions::isStreaming);
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                /* the shutdown hook wakes us up */
             }
-            System.out.println("}");
-          
-
-            /*
-             * The temperature service returns the data in an encoded format which can be found in the wiki. Convert the
-             * raw temperature format to celsius and print it. Conversion for object temperature depends on ambient
-             * according to wiki, but assume result is good enough for our purposes without conversion.
-             */
-            int objectTempRaw = (tempRaw[0] & 0xff) | (tempRaw[1] << 8);
-            int ambientTempRaw = (tempRaw[2] & 0xff) | (tempRaw[3] << 8);
-
-            int TempRaw = (HumidityRaw[0] & 0xff) | (HumidityRaw[1] << 8);
-            int HumiRaw = (HumidityRaw[2] & 0xff) | (HumidityRaw[3] << 8);
-
-            int GyroXRaw = (MovementRaw[0] & 0xff) | (MovementRaw[1] << 8);
-            int GyroYRaw = (MovementRaw[2] & 0xff) | (MovementRaw[3] << 8);
-            int GyroZRaw = (MovementRaw[4] & 0xff) | (MovementRaw[5] << 8);
-
-            int AccXRaw = (MovementRaw[6] & 0xff) | (MovementRaw[7] << 8);
-            int AccYRaw = (MovementRaw[8] & 0xff) | (MovementRaw[9] << 8);
-            int AccZRaw = (MovementRaw[10] & 0xff) | (MovementRaw[11] << 8);
-           
-            int MagXRaw = (MovementRaw[12] & 0xff) | (MovementRaw[13] << 8);
-            int MagYRaw = (MovementRaw[14] & 0xff) | (MovementRaw[15] << 8);
-            int MagZRaw = (MovementRaw[16] & 0xff) | (MovementRaw[17] << 8);
-            
-            int PresTempRaw =( PressureRaw[0] & 0xff) | (PressureRaw[1] << 8) | (PressureRaw[2] << 16 );
-            int PresRaw = (PressureRaw[3] & 0xff) | (PressureRaw[4] << 8 )| (PressureRaw[5] << 16 );
-            
-            int LightRaw =( OpticalRaw[0] & 0xff) | (OpticalRaw[1] << 8 );
-            
-            float objectTempCelsius = convertCelsius(objectTempRaw);
-            float ambientTempCelsius = convertCelsius(ambientTempRaw);
-            float TempRawCelsius = TempRaw/65536f*165-40;
-            float HumiRawCelsius = HumiRaw/65536f*100;
-
-            float GyroX = Gyroconvert(GyroXRaw);
-            float GyroY = Gyroconvert(GyroYRaw);
-            float GyroZ = Gyroconvert(GyroZRaw);
-
-            float AccX = Accconvert(AccXRaw);
-            float AccY = Accconvert(AccYRaw);
-            float AccZ = Accconvert(AccZRaw);            
-            
-            float MagX = Magconvert(MagXRaw); 
-            float MagY = Magconvert(MagYRaw); 
-            float MagZ = Magconvert(MagZRaw);
-            
-            float PresTempValue = PresTempRaw / 100.0f;
-            float PresValue = PresRaw / 100.0f;
-            
-            float LightValue = Lightconvert(LightRaw); 
-            
-            System.out.println(
-                    String.format(" Temp: Object = %fC, Ambient = %fC", objectTempCelsius, ambientTempCelsius));
-            System.out.println(
-            		String.format(" Humidity: Ambient = %fC, Humi = %f", TempRawCelsius, HumiRawCelsius)+"%");
-         
-            System.out.println(String.format(" Gyroscop: x = %f'/s, y = %f'/s , z = %f'/s", GyroX, GyroY, GyroZ));
-            System.out.println(String.format(" Accelerometer: x = %fG, y = %fG , z = %fG", AccX, AccY, AccZ));
-            System.out.println(String.format(" Magnetometer: x = %fuT, y = %fuT , z = %fuT", MagX, MagY, MagZ));
-            System.out.println(String.format(" Pressure: Ambient = %fC, Pressure = %fhPa", PresTempValue, PresValue));
-            System.out.println(String.format(" Light: Light = %fLux", LightValue));
-            
-            outToFile.println("==================="+time.format(day)+"======================");
-            outToFile.println(String.format(" Temp: Object = %fC, Ambient = %fC", objectTempCelsius, ambientTempCelsius));
-            outToFile.println(String.format(" Temp: Object = %fC, Humi = %f", TempRawCelsius, HumiRawCelsius)+"%");
-            
-            outToFile.println(String.format(" Gyroscop: x = %f'/s, y = %f'/s , z = %f'/s", GyroX, GyroY, GyroZ));
-            
-            outToFile.println(String.format(" Accelerometer: x = %fG, y = %fG , z = %fG", AccX, AccY, AccZ));
-            
-            outToFile.println(String.format(" Magnetometer: x = %fuT, y = %fuT , z = %fuT", MagX, MagY, MagZ));
-            outToFile.println(String.format(" Pressure: Ambient = %fC, Pressure = %fhPa", PresTempValue, PresValue));
-            outToFile.println(String.format(" Light: Light = %fLux", LightValue));
-            
-            SensorData TempSensor1 = new SensorData("f000aa00-0451-b001",time.format(day),String.valueOf(objectTempCelsius));
-            SensorData TempSensor2 = new SensorData("f000aa00-0451-b002",time.format(day),String.valueOf(ambientTempCelsius));
-            
-            SensorData HumiditySensor1 = new SensorData("f000aa20-0451-b001",time.format(day),String.valueOf(TempRawCelsius));
-            SensorData HumiditySensor2 = new SensorData("f000aa20-0451-b002",time.format(day),String.valueOf(HumiRawCelsius));
-            
-            SensorData MovementSensor1 = new SensorData("f000aa80-0451-b001",time.format(day),GyroX+":"+GyroY+":"+GyroZ);
-            SensorData MovementSensor2 = new SensorData("f000aa80-0451-b002",time.format(day),AccX+":"+AccY+":"+AccZ);
-            SensorData MovementSensor3 = new SensorData("f000aa80-0451-b003",time.format(day),MagX+":"+MagY+":"+MagZ);
-           
-            SensorData PressureSensor1 = new SensorData("f000aa40-0451-b001",time.format(day),String.valueOf(PresTempValue));
-            SensorData PressureSensor2 = new SensorData("f000aa40-0451-b002",time.format(day),String.valueOf(PresValue));
-            
-            SensorData OpticalSensor = new SensorData("f000aa70-0451-b001",time.format(day),String.valueOf(LightValue));
-           
-            SensorList.add(TempSensor1);	
-            SensorList.add(TempSensor2);	
-            
-            SensorList.add(HumiditySensor1);	
-            SensorList.add(HumiditySensor2);	
-            
-            SensorList.add(MovementSensor1);	
-            SensorList.add(MovementSensor2);	
-            SensorList.add(MovementSensor3);
-            
-            SensorList.add(PressureSensor1);	
-            SensorList.add(PressureSensor2);
-            
-            SensorList.add(OpticalSensor);
-            
-            String jsonInString = mapper.writeValueAsString(SensorList);
-			
-            outToServer.print(jsonInString);
-			outToServer.flush();
-            outToServer.close();
-  		  
-//			System.out.println(jsonInString);
-		
-			
-            socket.close();
-            Thread.sleep(500);
         }
-        sensor.disconnect();
-        outToFile.close();
+        sessions.close();
+        if (query != null)
+            query.close();
+        watchdog.close();
+        pump.close();
+        if (aggregator != null)
+            aggregator.flush();
+        uplinkBatcher.close();
+        forwarder.close();
+        spool.close();
+        uplink.close();
+        dataLog.close();
+        if (store != null)
+            store.close();
+        metrics.close();
         
     }
 
@@ -0,0 +1,177 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.*;
+
+import gateway.CompiledProfile;
+import gateway.GorillaBlock;
+import gateway.Sample;
+import gateway.SampleArchive;
+import gateway.SampleLineRenderer;
+import gateway.SamplePool;
+import gateway.SensorIds;
+import gateway.SensorProfiles;
+import gateway.SensorTagReading;
+import gateway.TimestampFormatter;
+
+/**
+ * Cost per sample of the local log: rendering the text line of SensorTagData against encoding into the Gorilla blocks
+ * of {@link SampleArchive}. The bytes per sample of both are printed once per trial, the archive's measured on a real
+ * file including block headers and index.
+ *
+ * The data is an hour of one tag at one cycle per second, decoded from raw values that drift by a step or two of the
+ * sensor resolution between cycles and stamped with a few milliseconds of notification jitter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchiveBenchmark {
+    static final int CYCLES = 3600;
+    static final int SAMPLES = CYCLES * 10;
+
+    private List<Sample> samples;
+    private final SampleLineRenderer renderer = new SampleLineRenderer(new TimestampFormatter());
+    private final StringBuilder line = new StringBuilder(256);
+    private final GorillaBlock[] blocks = new GorillaBlock[SensorIds.COUNT];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        samples = sensorTagHour(CYCLES);
+        for (int id = 1; id < SensorIds.COUNT; id++)
+            blocks[id] = new GorillaBlock(SensorIds.dimension(id), SampleArchive.DEFAULT_BLOCK_POINTS);
+
+        long text = 0;
+        for (Sample s : samples) {
+            line.setLength(0);
+            renderer.render(s, line);
+            text += line.length();
+        }
+        File dir = File.createTempFile("archive", "");
+        dir.delete();
+        SampleArchive archive = new SampleArchive(dir, "bench", SampleArchive.DEFAULT_BLOCK_POINTS,
+                Long.MAX_VALUE, Long.MAX_VALUE, SAMPLES, s -> { });
+        for (Sample s : samples)
+            archive.offer(s);
+        archive.close();
+        long compressed = 0;
+        for (File f : dir.listFiles()) {
+            compressed += f.length();
+            f.delete();
+        }
+        dir.delete();
+        System.out.println();
+        System.out.println(SAMPLES + " samples: text=" + (float) text / SAMPLES + " bytes/sample, archive="
+                + (float) compressed / SAMPLES + " bytes/sample (" + (text * 100 / compressed) / 100f
+                + "x smaller)");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int text() {
+        int n = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            line.setLength(0);
+            renderer.render(samples.get(i), line);
+            n += line.length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int gorilla() {
+        int n = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            Sample s = samples.get(i);
+            GorillaBlock block = blocks[s.sensorId];
+            block.add(s.timestampMillis(), s.values);
+            if (block.isFull()) {
+                n += block.length();
+                block.reset();
+            }
+        }
+        for (GorillaBlock block : blocks) {
+            if (block != null)
+                block.reset();
+        }
+        return n;
+    }
+
+    /** Cycles of a tag sitting on a desk, one second apart. */
+    static List<Sample> sensorTagHour(int cycles) {
+        List<Sample> out = new ArrayList<Sample>(cycles * 10);
+        SamplePool pool = new SamplePool(1);
+        CompiledProfile profile = SensorProfiles.decoder(SensorProfiles.CC2650.getName());
+        SensorTagReading r = new SensorTagReading();
+        Consumer<Sample> fill = s -> {
+            r.set(s);
+            pool.release(s);
+        };
+        Random random = new Random(42);
+        /* raw register values, as the tag sends them */
+        int[] temperature = { 0x0c40, 0x0d30 };
+        int[] humidity = { 0x661c, 0xa0a8 };
+        int[] movement = { -6, 18, -29, 16, -8, 16386, 120, -43, 201 };
+        int[] pressure = { 2728, 100852 };
+        int lightMantissa = 0x210;
+        long start = 1476777600000L;
+        for (int c = 0; c < cycles; c++) {
+            drift(random, temperature);
+            drift(random, humidity);
+            drift(random, movement);
+            drift(random, pressure);
+            lightMantissa = Math.max(0, Math.min(0xFFF, lightMantissa + step(random)));
+            /* services in profile order: temperature, humidity, movement, pressure, optical */
+            profile.decode(0, le16(temperature), 0L, null, pool, fill);
+            profile.decode(1, le16(humidity), 0L, null, pool, fill);
+            profile.decode(2, le16(movement), 0L, null, pool, fill);
+            profile.decode(3, new byte[] { (byte) pressure[0], (byte) (pressure[0] >> 8),
+                    (byte) (pressure[0] >> 16), (byte) pressure[1], (byte) (pressure[1] >> 8),
+                    (byte) (pressure[1] >> 16) }, 0L, null, pool, fill);
+            profile.decode(4, new byte[] { (byte) lightMantissa, (byte) (0x20 | lightMantissa >> 8) }, 0L, null,
+                    pool, fill);
+            long cycle = (start + c * 1000L) * 1000000L;
+            r.temperatureNanos = cycle + jitter(random);
+            r.humidityNanos = cycle + jitter(random);
+            r.movementNanos = cycle + jitter(random);
+            r.pressureNanos = cycle + jitter(random);
+            r.opticalNanos = cycle + jitter(random);
+            r.forEachSample(pool, s -> out.add(s));
+        }
+        return out;
+    }
+
+    private static void drift(Random random, int[] raw) {
+        for (int i = 0; i < raw.length; i++)
+            raw[i] += step(random);
+    }
+
+    /* mostly unchanged, sometimes one or two steps */
+    private static int step(Random random) {
+        int r = random.nextInt(8);
+        return r < 4 ? 0 : r < 6 ? 1 - 2 * (r & 1) : r == 6 ? 2 : -2;
+    }
+
+    private static long jitter(Random random) {
+        return random.nextInt(4) * 1000000L;
+    }
+
+    private static byte[] le16(int[] words) {
+        byte[] raw = new byte[words.length * 2];
+        for (int i = 0; i < words.length; i++) {
+            raw[2 * i] = (byte) words[i];
+            raw[2 * i + 1] = (byte) (words[i] >> 8);
+        }
+        return raw;
+    }
+}
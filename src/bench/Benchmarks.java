@@ -0,0 +1,73 @@
+package bench;
+
+import java.util.Collection;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Entry point of tinyb-bench.jar. Takes the usual JMH command line, always with the GC profiler, so every run reports
+ * the bytes allocated per operation next to the time, and ends with a summary of both per benchmark. Results are
+ * also written to jmh-result.json unless -rf or -rff say otherwise, to compare a change against the baseline:
+ *
+ * <pre>
+ * java -jar tinyb-bench.jar                          everything
+ * java -jar tinyb-bench.jar Conversion Serialization  the decode, serialize and framing hot path
+ * </pre>
+ */
+public final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd;
+        try {
+            cmd = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        boolean profiled = false;
+        for (ProfilerConfig p : cmd.getProfilers())
+            profiled |= p.getKlass().equals("gc") || p.getKlass().equals(GCProfiler.class.getName());
+        if (!profiled)
+            options.addProfiler(GCProfiler.class);
+        if (!cmd.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue())
+            options.result("jmh-result.json");
+
+        Collection<RunResult> results = new Runner(options.build()).run();
+
+        System.out.println();
+        System.out.println(String.format("%-70s %20s %12s", "Benchmark", "Score", "Alloc B/op"));
+        for (RunResult result : results) {
+            Result<?> primary = result.getPrimaryResult();
+            String alloc = "-";
+            /* JMH hands these back as a raw Map<String, Result>, so look them up by label */
+            for (String label : result.getSecondaryResults().keySet()) {
+                if (!label.endsWith("gc.alloc.rate.norm"))
+                    continue;
+                Result<?> norm = result.getSecondaryResults().get(label);
+                alloc = String.format("%.1f", norm.getScore());
+            }
+            System.out.println(String.format("%-70s %20s %12s", result.getParams().id(),
+                    String.format("%.3f %s", primary.getScore(), primary.getScoreUnit()), alloc));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.*;
+
+import gateway.CompiledProfile;
+import gateway.Sample;
+import gateway.SamplePool;
+import gateway.SensorProfiles;
+
+/**
+ * Cost of the raw-to-unit conversions of the CC2650 {@link CompiledProfile}, as one decode of one service value into
+ * pooled samples. Each operation decodes a table of random raw values back to back, so the JIT cannot fold the result
+ * into a constant; the score is per decoded value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+    static final int VALUES = 1024;
+
+    /* Services in profile order, with the length of their values */
+    private static final int TEMPERATURE = 0, HUMIDITY = 1, MOVEMENT = 2, PRESSURE = 3, OPTICAL = 4;
+    private static final int[] LENGTHS = { 4, 4, 18, 6, 2 };
+
+    private final CompiledProfile profile = SensorProfiles.decoder(SensorProfiles.CC2650.getName());
+    private final SamplePool pool = new SamplePool(4);
+    private final ByteBuffer[] tables = new ByteBuffer[LENGTHS.length];
+    private float sum;
+    private final Consumer<Sample> add = s -> {
+        sum += s.values[0];
+        pool.release(s);
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int service = 0; service < LENGTHS.length; service++) {
+            byte[] raw = new byte[VALUES * LENGTHS[service]];
+            random.nextBytes(raw);
+            tables[service] = ByteBuffer.allocateDirect(raw.length).order(ByteOrder.LITTLE_ENDIAN);
+            tables[service].put(raw).flip();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public float temperature() {
+        return decodeAll(TEMPERATURE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public float humidity() {
+        return decodeAll(HUMIDITY);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public float movement() {
+        return decodeAll(MOVEMENT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public float pressure() {
+        return decodeAll(PRESSURE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public float optical() {
+        return decodeAll(OPTICAL);
+    }
+
+    private float decodeAll(int service) {
+        ByteBuffer table = tables[service];
+        int length = LENGTHS[service];
+        sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            table.position(i * length);
+            profile.decode(service, table, 1L, "bench", pool, add);
+        }
+        return sum;
+    }
+}
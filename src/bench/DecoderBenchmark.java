@@ -0,0 +1,123 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import gateway.CompiledProfile;
+import gateway.Sample;
+import gateway.SamplePool;
+import gateway.SensorProfiles;
+import gateway.SensorTagReading;
+
+/**
+ * Cost of decoding one full SensorTag cycle (all five services) with the CC2650 {@link CompiledProfile}: into pooled
+ * samples from byte[] values as returned by readValue() and from ByteBuffer views, and into a
+ * {@link SensorTagReading} as the live tag link does.
+ *
+ * Running this class directly runs the benchmark with the GC profiler and fails unless every benchmark allocates
+ * less than one byte per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+    /* Values captured from a CC2650 SensorTag on a desk */
+    static final byte[] TEMPERATURE = { 0x40, 0x0c, 0x30, 0x0d };
+    static final byte[] HUMIDITY = { 0x1c, 0x66, (byte) 0xa8, (byte) 0xa0 };
+    static final byte[] PRESSURE = { (byte) 0xa8, 0x0a, 0x00, (byte) 0xf4, (byte) 0x89, 0x01 };
+    static final byte[] OPTICAL = { 0x10, 0x52 };
+    static final byte[] MOVEMENT = { (byte) 0xfa, (byte) 0xff, 0x12, 0x00, (byte) 0xe3, (byte) 0xff, 0x10, 0x00,
+            (byte) 0xf8, (byte) 0xff, 0x02, 0x40, 0x78, 0x00, (byte) 0xd5, (byte) 0xff, (byte) 0xc9, 0x00 };
+
+    private ByteBuffer temperature, humidity, pressure, optical, movement;
+    private final CompiledProfile profile = SensorProfiles.decoder(SensorProfiles.CC2650.getName());
+    private final SamplePool pool = new SamplePool(16);
+    private final Consumer<Sample> release = pool::release;
+    private final SensorTagReading reading = new SensorTagReading();
+    private final Consumer<Sample> fill = s -> {
+        reading.set(s);
+        pool.release(s);
+    };
+
+    @Setup
+    public void setUp() {
+        temperature = view(TEMPERATURE);
+        humidity = view(HUMIDITY);
+        pressure = view(PRESSURE);
+        optical = view(OPTICAL);
+        movement = view(MOVEMENT);
+    }
+
+    /* Services in profile order: temperature, humidity, movement, pressure, optical */
+    @Benchmark
+    public boolean decodeProfileByteArrays() {
+        return profile.decode(0, TEMPERATURE, 1L, "bench", pool, release)
+                & profile.decode(1, HUMIDITY, 1L, "bench", pool, release)
+                & profile.decode(2, MOVEMENT, 1L, "bench", pool, release)
+                & profile.decode(3, PRESSURE, 1L, "bench", pool, release)
+                & profile.decode(4, OPTICAL, 1L, "bench", pool, release);
+    }
+
+    @Benchmark
+    public boolean decodeProfileByteBuffers() {
+        return profile.decode(0, temperature, 1L, "bench", pool, release)
+                & profile.decode(1, humidity, 1L, "bench", pool, release)
+                & profile.decode(2, movement, 1L, "bench", pool, release)
+                & profile.decode(3, pressure, 1L, "bench", pool, release)
+                & profile.decode(4, optical, 1L, "bench", pool, release);
+    }
+
+    @Benchmark
+    public SensorTagReading decodeProfileIntoReading() {
+        profile.decode(0, TEMPERATURE, 1L, "bench", pool, fill);
+        profile.decode(1, HUMIDITY, 1L, "bench", pool, fill);
+        profile.decode(2, MOVEMENT, 1L, "bench", pool, fill);
+        profile.decode(3, PRESSURE, 1L, "bench", pool, fill);
+        profile.decode(4, OPTICAL, 1L, "bench", pool, fill);
+        return reading;
+    }
+
+    private static ByteBuffer view(byte[] raw) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(raw.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(raw).flip();
+        return buf;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(DecoderBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        boolean allocates = false;
+        for (RunResult result : results) {
+            for (String label : result.getSecondaryResults().keySet()) {
+                if (!label.endsWith("gc.alloc.rate.norm"))
+                    continue;
+                Result<?> alloc = result.getSecondaryResults().get(label);
+                double bytesPerOp = alloc.getScore();
+                System.out.println(result.getParams().getBenchmark() + ": " + bytesPerOp + " bytes/op");
+                if (bytesPerOp >= 1.0)
+                    allocates = true;
+            }
+        }
+        if (allocates) {
+            System.err.println("The decoder allocates on the sampling path.");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package bench;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the remote collector: accepts any number of connections on a loopback port, reads length-prefixed
+ * frames and acknowledges each with the number of frames received on the connection so far, as the
+ * {@link gateway.Uplink} expects. Frames are drained without being looked at, so benchmarks measure the sending side
+ * only. Unframed writes just read as one large frame that never completes.
+ */
+public class LocalCollector implements AutoCloseable {
+    private final ServerSocket server;
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean running = true;
+
+    public LocalCollector() throws IOException {
+        server = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "local-collector");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return server.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getBytesReceived() {
+        return bytes.get();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket s = server.accept();
+                Thread t = new Thread(() -> drain(s), "local-collector-conn");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (running)
+                    System.err.println("Local collector accept failed: " + e);
+            }
+        }
+    }
+
+    private void drain(Socket s) {
+        byte[] buf = new byte[64 * 1024];
+        try (DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(s.getOutputStream())) {
+            int frames = 0;
+            while (true) {
+                int len = in.readInt();
+                bytes.addAndGet(4);
+                while (len > 0) {
+                    int n = in.read(buf, 0, Math.min(len, buf.length));
+                    if (n < 0)
+                        throw new EOFException();
+                    bytes.addAndGet(n);
+                    len -= n;
+                }
+                out.writeInt(++frames);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+    }
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gateway.BatchEncoder;
+import gateway.BatchPolicy;
+import gateway.Batcher;
+import gateway.BinaryBatchEncoder;
+import gateway.JsonBatchEncoder;
+import gateway.Sample;
+import gateway.SensorData;
+import gateway.Spool;
+import gateway.TimestampFormatter;
+
+/**
+ * The path from a decoded cycle to the uplink, one SensorTag cycle of ten readings per operation: turning samples
+ * into legacy {@link SensorData}, serializing SensorData with Jackson one record at a time (as HelloTinyB used to)
+ * and as one array, and framing, where the cycle goes through a {@link Batcher} and its encoder into the
+ * {@link Spool} the uplink sends from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private List<Sample> cycle;
+    private List<SensorData> legacy;
+    private final TimestampFormatter timestamps = new TimestampFormatter();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private File dir;
+    private Spool spool;
+    private Batcher<Sample> jsonBatcher;
+    private Batcher<Sample> binaryBatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cycle = WireFormatBenchmark.sensorTagBatch(1);
+        legacy = toSensorData();
+        dir = File.createTempFile("spool", "");
+        dir.delete();
+        spool = new Spool(dir, 8 << 20, 64 << 20);
+        /* batches are cut by count, one per cycle, never by the timer */
+        BatchPolicy policy = new BatchPolicy(cycle.size(), Integer.MAX_VALUE, TimeUnit.HOURS.toMillis(1));
+        JsonBatchEncoder json = new JsonBatchEncoder();
+        BinaryBatchEncoder binary = new BinaryBatchEncoder();
+        jsonBatcher = new Batcher<Sample>(policy, json::sizeOf, batch -> frame(json, batch));
+        binaryBatcher = new Batcher<Sample>(policy, binary::sizeOf, batch -> frame(binary, batch));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        spool.close();
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<SensorData> toSensorData() {
+        List<SensorData> out = new ArrayList<SensorData>(cycle.size());
+        for (Sample s : cycle)
+            out.add(SensorData.of(s, timestamps.format(s.timestampMillis())));
+        return out;
+    }
+
+    @Benchmark
+    public int jacksonPerRecord() throws IOException {
+        int bytes = 0;
+        for (SensorData d : legacy)
+            bytes += mapper.writeValueAsBytes(d).length;
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] jacksonArray() throws IOException {
+        return mapper.writeValueAsBytes(legacy);
+    }
+
+    @Benchmark
+    public void frameJson() {
+        for (Sample s : cycle)
+            jsonBatcher.add(s);
+    }
+
+    @Benchmark
+    public void frameBinary() {
+        for (Sample s : cycle)
+            binaryBatcher.add(s);
+    }
+
+    private void frame(BatchEncoder<Sample> encoder, List<Sample> batch) {
+        try {
+            spool.append(encoder.encode(batch));
+            /* drained as the uplink would, so the spool never runs out of budget */
+            spool.peek();
+            spool.ack();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import gateway.AcquisitionClock;
+import gateway.DeviceSession;
+import gateway.DeviceSessionManager;
+import gateway.DeviceState;
+import gateway.SamplePool;
+
+/**
+ * Load test of {@link DeviceSessionManager}: runs 1, 8, 32 and 64 simulated tags at 10 Hz for a few seconds each and
+ * reports the samples per second that reached the sink against the expected rate, and how long it took until every
+ * tag had delivered its first sample. One extra tag drops every 300 ms throughout; its samples are not counted, so
+ * the rate shows whether it costs the steady tags anything. Not a JMH benchmark; run with
+ *   java -cp tinyb-bench.jar:tinyb.jar bench.SessionLoadTest [seconds]
+ */
+public class SessionLoadTest {
+    private static final int[] TAGS = { 1, 8, 32, 64 };
+    private static final long PERIOD_MILLIS = 100;
+    /* Every full reading yields one sample per sensor id */
+    private static final int SAMPLES_PER_READING = 10;
+    private static final String FLAPPING = "SIM:FF:FF:FF:FF:FF";
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        AcquisitionClock clock = new AcquisitionClock();
+        System.out.println("tags  samples/s  expected/s  first sample ms  flaps");
+        for (int tags : TAGS) {
+            SamplePool pool = new SamplePool(1024);
+            LongAdder delivered = new LongAdder();
+            DeviceSessionManager sessions = new DeviceSessionManager(tags + 1, pool, s -> {
+                if (!FLAPPING.equals(s.device))
+                    delivered.increment();
+                pool.release(s);
+            });
+            for (int i = 0; i < tags; i++)
+                sessions.start(new SimulatedSensorTagLink(String.format("SIM:00:00:00:00:%02X", i), PERIOD_MILLIS,
+                        clock));
+            DeviceSession flapping = new DeviceSession(new SimulatedSensorTagLink(FLAPPING, PERIOD_MILLIS, clock, 300),
+                    pool, s -> pool.release(s), System.nanoTime(), 10, 100, null);
+            Thread flapper = new Thread(flapping, "flapping-tag");
+            flapper.start();
+
+            /* let every session connect before measuring */
+            Thread.sleep(500);
+            long before = delivered.sum();
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            long samples = delivered.sum() - before;
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long firstSample = sessions.getTimeToFirstSampleNanos();
+            sessions.close();
+            flapping.close();
+            flapper.join();
+
+            System.out.println(String.format("%4d  %9.0f  %10d  %15d  %5d", tags, samples / elapsed,
+                    tags * SAMPLES_PER_READING * 1000 / PERIOD_MILLIS, TimeUnit.NANOSECONDS.toMillis(firstSample),
+                    flapping.getTransitions(DeviceState.STREAMING, DeviceState.BACKOFF)));
+        }
+    }
+}
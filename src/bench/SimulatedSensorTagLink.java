@@ -0,0 +1,110 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import gateway.AcquisitionClock;
+import gateway.CompiledProfile;
+import gateway.Sample;
+import gateway.SamplePool;
+import gateway.SensorProfiles;
+import gateway.SensorTagLink;
+import gateway.SensorTagReading;
+
+/**
+ * A SensorTag that connects instantly and produces a reading every period, decoded from the captured values in
+ * {@link DecoderBenchmark}, so sessions can be load tested without radios. A flapping tag drops its connection after
+ * streaming for a while.
+ */
+public class SimulatedSensorTagLink implements SensorTagLink {
+    private final String address;
+    private final long periodNanos;
+    private final AcquisitionClock clock;
+    private final long dropAfterNanos;
+    private final CompiledProfile profile = SensorProfiles.decoder(SensorProfiles.CC2650.getName());
+    private final SamplePool scratch = new SamplePool(4);
+    private SensorTagReading target;
+    private final Consumer<Sample> fill = s -> {
+        target.set(s);
+        scratch.release(s);
+    };
+    private volatile boolean connected;
+    private long next;
+    private long dropAt;
+
+    public SimulatedSensorTagLink(String address, long periodMillis, AcquisitionClock clock) {
+        this(address, periodMillis, clock, 0);
+    }
+
+    /**
+     * @param dropAfterMillis how long the tag streams before it drops, 0 for never
+     */
+    public SimulatedSensorTagLink(String address, long periodMillis, AcquisitionClock clock, long dropAfterMillis) {
+        this.address = address;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.clock = clock;
+        this.dropAfterNanos = TimeUnit.MILLISECONDS.toNanos(dropAfterMillis);
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean connect() {
+        connected = true;
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+
+    @Override
+    public boolean start() {
+        next = System.nanoTime() + periodNanos;
+        dropAt = next + dropAfterNanos;
+        return true;
+    }
+
+    @Override
+    public boolean poll(SensorTagReading reading, long timeout, TimeUnit unit) throws InterruptedException {
+        long now = System.nanoTime();
+        if (dropAfterNanos > 0 && now - dropAt >= 0) {
+            connected = false;
+            return false;
+        }
+        long wait = next - now;
+        if (wait > unit.toNanos(timeout)) {
+            LockSupport.parkNanos(unit.toNanos(timeout));
+            return false;
+        }
+        if (wait > 0)
+            LockSupport.parkNanos(wait);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        next += periodNanos;
+
+        long stamp = clock.now();
+        target = reading;
+        profile.decode(0, DecoderBenchmark.TEMPERATURE, stamp, address, scratch, fill);
+        profile.decode(1, DecoderBenchmark.HUMIDITY, stamp, address, scratch, fill);
+        profile.decode(2, DecoderBenchmark.MOVEMENT, stamp, address, scratch, fill);
+        profile.decode(3, DecoderBenchmark.PRESSURE, stamp, address, scratch, fill);
+        profile.decode(4, DecoderBenchmark.OPTICAL, stamp, address, scratch, fill);
+        reading.device = address;
+        return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import gateway.Sample;
+import gateway.SensorIds;
+import gateway.TimeSeriesStore;
+
+/**
+ * Write cost of the {@link TimeSeriesStore}: one operation stores a full cycle of all ten readings of each of 50 tags,
+ * so the store keeps up with 50 tags at 10 Hz while an operation takes less than 100 ms. Simulated time moves on by
+ * 100 ms per cycle, crossing into new hourly partitions as the run goes on; with one hour of retention the store
+ * holds at most a few hundred MiB in the temporary directory.
+ *
+ * The second benchmark reads back the last hour of humidity of one tag, downsampled to minutes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+    static final int TAGS = 50;
+
+    private File dir;
+    private TimeSeriesStore store;
+    private Sample[][] cycles;
+    private long cycle;
+    private final long start = 1476777600000L;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("store", "");
+        dir.delete();
+        store = new TimeSeriesStore(dir, 1, 1, s -> { });
+        List<Sample> hour = ArchiveBenchmark.sensorTagHour(10);
+        cycles = new Sample[TAGS][10];
+        for (int t = 0; t < TAGS; t++) {
+            for (int i = 0; i < 10; i++) {
+                Sample s = new Sample().copyFrom(hour.get(i));
+                s.device = String.format("B0:B4:48:BD:%02X:%02X", t >> 8, t & 0xFF);
+                cycles[t][i] = s;
+            }
+        }
+        /* an hour for the read benchmark */
+        for (int c = 0; c < 36000; c++)
+            writeCycle();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public void writeCycle() throws IOException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(start + cycle++ * 100);
+        for (Sample[] tag : cycles) {
+            for (Sample s : tag) {
+                s.timestampNanos = nanos;
+                store.append(s);
+            }
+        }
+    }
+
+    @Benchmark
+    public int readHourByMinute() throws IOException {
+        final int[] buckets = new int[1];
+        long now = start + cycle * 100;
+        store.downsample(cycles[0][0].device, SensorIds.HUMIDITY, now - TimeUnit.HOURS.toMillis(1), now - 1,
+                TimeUnit.MINUTES.toMillis(1), (from, count, min, max, mean, dimension) -> buckets[0]++);
+        return buckets[0];
+    }
+}
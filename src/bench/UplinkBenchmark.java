@@ -0,0 +1,59 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import gateway.Uplink;
+
+/**
+ * Batches per second sent to a loopback collector, comparing the old connection-per-batch pattern from
+ * HelloTinyB against one persistent framed {@link Uplink}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UplinkBenchmark {
+    /* Roughly one cycle of ten SensorData objects as JSON, and a larger multi-cycle batch. */
+    @Param({ "900", "16384" })
+    int payloadSize;
+
+    private LocalCollector collector;
+    private Uplink uplink;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        collector = new LocalCollector();
+        uplink = new Uplink(collector.getHost(), collector.getPort());
+        payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) '7');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        uplink.close();
+        collector.close();
+    }
+
+    @Benchmark
+    public void socketPerBatch() throws IOException {
+        try (Socket socket = new Socket(collector.getHost(), collector.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    @Benchmark
+    public boolean persistentUplink() {
+        return uplink.send(payload);
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import gateway.BinaryBatchEncoder;
+import gateway.JsonBatchEncoder;
+import gateway.Sample;
+import gateway.SamplePool;
+import gateway.SensorTagReading;
+
+/**
+ * Encode time of one uplink batch as JSON and as binary. The encoded sizes are printed once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+    /* cycles of ten readings per batch */
+    @Param({ "1", "20" })
+    int cycles;
+
+    private List<Sample> batch;
+    private JsonBatchEncoder json;
+    private BinaryBatchEncoder binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        batch = sensorTagBatch(cycles);
+        json = new JsonBatchEncoder();
+        binary = new BinaryBatchEncoder();
+        int jsonSize = json.encode(batch).length;
+        int binarySize = binary.encode(batch).length;
+        System.out.println();
+        System.out.println("Batch of " + batch.size() + " records: json=" + jsonSize + " bytes, binary="
+                + binarySize + " bytes (" + (jsonSize * 100 / binarySize) / 100f + "x smaller)");
+    }
+
+    @Benchmark
+    public byte[] json() throws IOException {
+        return json.encode(batch);
+    }
+
+    @Benchmark
+    public byte[] binary() {
+        return binary.encode(batch);
+    }
+
+    /** Builds cycles SensorTag cycles the way HelloTinyB does, one second apart. */
+    static List<Sample> sensorTagBatch(int cycles) {
+        List<Sample> batch = new ArrayList<Sample>();
+        SamplePool pool = new SamplePool(1);
+        SensorTagReading r = new SensorTagReading();
+        long start = 1476777600000L;
+        for (int c = 0; c < cycles; c++) {
+            float f = c * 0.03125f;
+            r.objectTemperature = 24.5f + f;
+            r.ambientTemperature = 26.03125f + f;
+            r.humidityTemperature = 25.874634f + f;
+            r.humidity = 41.16211f - f;
+            r.gyroX = 0.9765625f + f;
+            r.gyroY = -1.3046875f;
+            r.gyroZ = 0.21362305f;
+            r.accX = 0.0078125f;
+            r.accY = -0.01171875f + f;
+            r.accZ = 0.98046875f;
+            r.magX = 120f;
+            r.magY = -43f;
+            r.magZ = 201f + c;
+            r.pressureTemperature = 25.98f + f;
+            r.pressure = 1008.37f - f;
+            r.light = 163.84f + c;
+            r.stampAll((start + c * 1000L) * 1000000L);
+            r.forEachSample(pool, batch::add);
+        }
+        return batch;
+    }
+}
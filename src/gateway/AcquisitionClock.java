@@ -0,0 +1,45 @@
+package gateway;
+
+/**
+ * Wall-clock timestamps for acquired values that advance with System.nanoTime() rather than with the system clock.
+ *
+ * The clock reads the wall time once, then adds elapsed monotonic time to it, so consecutive stamps can never go
+ * backwards or jump when NTP steps the system clock. Calling {@link #reanchor} follows the wall clock again, but
+ * never moves the clock behind a stamp it already handed out.
+ */
+public class AcquisitionClock {
+    private volatile Anchor anchor;
+
+    public AcquisitionClock() {
+        anchor = new Anchor(System.currentTimeMillis() * 1000000L, System.nanoTime());
+    }
+
+    /** Current time in nanoseconds since the epoch. */
+    public long now() {
+        Anchor a = anchor;
+        return a.epochNanos + (System.nanoTime() - a.monotonicNanos);
+    }
+
+    /** Current time in milliseconds since the epoch. */
+    public long nowMillis() {
+        return now() / 1000000L;
+    }
+
+    /** Takes the wall clock as the new base, unless that would put the clock behind its current reading. */
+    public synchronized void reanchor() {
+        long monotonic = System.nanoTime();
+        long current = anchor.epochNanos + (monotonic - anchor.monotonicNanos);
+        long wall = System.currentTimeMillis() * 1000000L;
+        anchor = new Anchor(Math.max(wall, current), monotonic);
+    }
+
+    private static final class Anchor {
+        final long epochNanos;
+        final long monotonicNanos;
+
+        Anchor(long epochNanos, long monotonicNanos) {
+            this.epochNanos = epochNanos;
+            this.monotonicNanos = monotonicNanos;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package gateway;
+
+/**
+ * Chooses the notification period of each SensorTag service from the values it reports, so the tag spends radio time
+ * and battery only where something happens.
+ *
+ * Temperature, humidity and pressure change slowly: after {@link #QUIET_READINGS} new values in a row that stay
+ * within a small threshold of the last significant one, their period is doubled, up to the firmware maximum of
+ * 2.55 s, and it drops back to the default 1 s as soon as a value moves past the threshold. The movement sensor runs
+ * at 10 Hz while the tag moves and slows to 1 Hz after two seconds at rest. The optical sensor keeps its default,
+ * since light tends to change in steps.
+ *
+ * Periods are in the unit of the Period characteristics, 10 ms. Not thread safe; each tag owns one controller.
+ */
+public class AdaptiveRateController {
+    /* Slots of the services, as used by TinybSensorTagLink */
+    public static final int TEMPERATURE = 0;
+    public static final int HUMIDITY = 1;
+    public static final int MOVEMENT = 2;
+    public static final int PRESSURE = 3;
+    public static final int OPTICAL = 4;
+    public static final int SLOTS = 5;
+
+    public static final int DEFAULT_PERIOD = 100;
+    public static final int MAX_PERIOD = 255;
+    public static final int ACTIVE_MOVEMENT_PERIOD = 10;
+    static final int QUIET_READINGS = 10;
+    static final int QUIET_MOVEMENT_READINGS = 20;
+
+    /* A change smaller than these does not count as activity */
+    static final float TEMPERATURE_THRESHOLD = 0.25f;
+    static final float HUMIDITY_THRESHOLD = 1.0f;
+    static final float PRESSURE_THRESHOLD = 0.2f;
+    static final float ACCELERATION_THRESHOLD = 0.05f;
+    static final float ROTATION_THRESHOLD = 10f;
+
+    private final int[] periods = new int[SLOTS];
+    private final int[] quiet = new int[SLOTS];
+    private final long[] seenNanos = new long[SLOTS];
+    private final float[] reference = new float[SLOTS];
+    private final boolean[] hasReference = new boolean[SLOTS];
+
+    public AdaptiveRateController() {
+        reset();
+    }
+
+    /** Back to the default periods, with the movement sensor fast, as after connecting. */
+    public void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            periods[i] = DEFAULT_PERIOD;
+            quiet[i] = 0;
+            seenNanos[i] = 0;
+            hasReference[i] = false;
+        }
+        periods[MOVEMENT] = ACTIVE_MOVEMENT_PERIOD;
+    }
+
+    /** Current period of the slot, in units of 10 ms. */
+    public int getPeriod(int slot) {
+        return periods[slot];
+    }
+
+    /**
+     * Looks at the services of reading whose acquisition time moved since the last call.
+     * @return a bit mask of the slots whose period changed, bit n for slot n
+     */
+    public int update(SensorTagReading reading) {
+        int changed = 0;
+        if (fresh(TEMPERATURE, reading.temperatureNanos))
+            changed |= slow(TEMPERATURE, reading.ambientTemperature, TEMPERATURE_THRESHOLD);
+        if (fresh(HUMIDITY, reading.humidityNanos))
+            changed |= slow(HUMIDITY, reading.humidity, HUMIDITY_THRESHOLD);
+        if (fresh(PRESSURE, reading.pressureNanos))
+            changed |= slow(PRESSURE, reading.pressure, PRESSURE_THRESHOLD);
+        if (fresh(MOVEMENT, reading.movementNanos))
+            changed |= movement(reading);
+        return changed;
+    }
+
+    private boolean fresh(int slot, long nanos) {
+        if (nanos == seenNanos[slot])
+            return false;
+        seenNanos[slot] = nanos;
+        return true;
+    }
+
+    private int slow(int slot, float value, float threshold) {
+        if (!hasReference[slot] || Math.abs(value - reference[slot]) > threshold) {
+            reference[slot] = value;
+            hasReference[slot] = true;
+            quiet[slot] = 0;
+            return setPeriod(slot, DEFAULT_PERIOD);
+        }
+        if (++quiet[slot] < QUIET_READINGS)
+            return 0;
+        quiet[slot] = 0;
+        return setPeriod(slot, Math.min(periods[slot] * 2, MAX_PERIOD));
+    }
+
+    private int movement(SensorTagReading r) {
+        /* at rest the accelerometer reads 1 G of gravity and the gyroscope nothing */
+        float g = (float) Math.sqrt(r.accX * r.accX + r.accY * r.accY + r.accZ * r.accZ);
+        float rotation = (float) Math.sqrt(r.gyroX * r.gyroX + r.gyroY * r.gyroY + r.gyroZ * r.gyroZ);
+        if (Math.abs(g - 1f) > ACCELERATION_THRESHOLD || rotation > ROTATION_THRESHOLD) {
+            quiet[MOVEMENT] = 0;
+            return setPeriod(MOVEMENT, ACTIVE_MOVEMENT_PERIOD);
+        }
+        if (++quiet[MOVEMENT] < QUIET_MOVEMENT_READINGS)
+            return 0;
+        return setPeriod(MOVEMENT, DEFAULT_PERIOD);
+    }
+
+    private int setPeriod(int slot, int period) {
+        if (periods[slot] == period)
+            return 0;
+        periods[slot] = period;
+        return 1 << slot;
+    }
+}
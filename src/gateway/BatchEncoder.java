@@ -0,0 +1,14 @@
+package gateway;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns a batch of records into the payload of one uplink frame.
+ */
+public interface BatchEncoder<T> {
+    byte[] encode(List<T> batch) throws IOException;
+
+    /** Estimated number of bytes a record adds to an encoded batch, used for size-bounded batching. */
+    int sizeOf(T record);
+}
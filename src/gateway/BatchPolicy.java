@@ -0,0 +1,47 @@
+package gateway;
+
+/**
+ * When a {@link Batcher} hands its pending records to the sink: after maxRecords records, after roughly maxBytes
+ * bytes of encoded records, or maxDelayMillis after the first record of the batch arrived, whichever comes first.
+ */
+public class BatchPolicy {
+    private final int maxRecords;
+    private final int maxBytes;
+    private final long maxDelayMillis;
+
+    public BatchPolicy(int maxRecords, int maxBytes, long maxDelayMillis) {
+        if (maxRecords < 1 || maxBytes < 1 || maxDelayMillis < 1)
+            throw new IllegalArgumentException("Batch limits must be positive: records=" + maxRecords + " bytes="
+                    + maxBytes + " millis=" + maxDelayMillis);
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Reads the policy of the named sink from the system properties &lt;sink&gt;.batch.records,
+     * &lt;sink&gt;.batch.bytes and &lt;sink&gt;.batch.millis, using defaults for the ones that are not set.
+     */
+    public static BatchPolicy fromSystemProperties(String sink, BatchPolicy defaults) {
+        return new BatchPolicy(Integer.getInteger(sink + ".batch.records", defaults.maxRecords),
+                Integer.getInteger(sink + ".batch.bytes", defaults.maxBytes),
+                Long.getLong(sink + ".batch.millis", defaults.maxDelayMillis));
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchPolicy [records=" + maxRecords + ", bytes=" + maxBytes + ", millis=" + maxDelayMillis + "]";
+    }
+}
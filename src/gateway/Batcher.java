@@ -0,0 +1,111 @@
+package gateway;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects records between acquisition and a sink and hands them over in batches, as decided by a
+ * {@link BatchPolicy}. Each sink gets its own batcher and therefore its own policy.
+ *
+ * Record and byte limits are checked when a record is added. The time limit is enforced by a timer shared by all
+ * batchers, so a half-full batch still goes out when acquisition pauses.
+ */
+public class Batcher<T> implements Closeable {
+    public interface Sink<T> {
+        void accept(List<T> batch);
+    }
+
+    /** Estimates how many bytes a record adds to an encoded batch. */
+    public interface Sizer<T> {
+        int sizeOf(T record);
+    }
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "batch-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final BatchPolicy policy;
+    private final Sizer<? super T> sizer;
+    private final Sink<T> sink;
+
+    private List<T> pending;
+    private int pendingBytes;
+    private long generation;
+    private ScheduledFuture<?> deadline;
+
+    public Batcher(BatchPolicy policy, Sizer<? super T> sizer, Sink<T> sink) {
+        this.policy = policy;
+        this.sizer = sizer;
+        this.sink = sink;
+        this.pending = newBatch();
+    }
+
+    public BatchPolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized void add(T record) {
+        if (pending.isEmpty())
+            armDeadline();
+        pending.add(record);
+        pendingBytes += sizer.sizeOf(record);
+        if (pending.size() >= policy.getMaxRecords() || pendingBytes >= policy.getMaxBytes())
+            flush();
+    }
+
+    public synchronized void addAll(Collection<? extends T> records) {
+        for (T record : records)
+            add(record);
+    }
+
+    /** Hands whatever is pending to the sink right away. */
+    public synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        generation++;
+        List<T> batch = pending;
+        pending = newBatch();
+        pendingBytes = 0;
+        sink.accept(batch);
+    }
+
+    /** Flushes the pending records; the batcher must not be used afterwards. */
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+
+    private void armDeadline() {
+        final long armed = generation;
+        deadline = TIMER.schedule(() -> onDeadline(armed), policy.getMaxDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onDeadline(long armed) {
+        if (armed != generation)
+            return;
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Timed batch flush failed: " + e);
+        }
+    }
+
+    private List<T> newBatch() {
+        return new ArrayList<T>(Math.min(policy.getMaxRecords(), 1024));
+    }
+}
@@ -0,0 +1,145 @@
+package gateway;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collector-side reader for batches written by {@link BinaryBatchEncoder}.
+ */
+public class BinaryBatchDecoder {
+    public interface Handler {
+        /**
+         * Called once per record. The device is null for version 1 batches. The values array is reused between
+         * calls; only the first {@link SensorIds#dimension}(sensorId) entries are meaningful.
+         */
+        void onRecord(String device, int sensorId, long timestampMillis, float[] values);
+
+        /**
+         * Called once per window summary, with the start of the window. Unless overridden, the summary is passed on
+         * to {@link #onRecord} as a reading of its mean.
+         */
+        default void onSummary(String device, int sensorId, long startMillis, long windowMillis, int count,
+                float min, float max, float[] mean) {
+            onRecord(device, sensorId, startMillis, mean);
+        }
+    }
+
+    /** Returns true if the frame payload holds a binary batch rather than a JSON array. */
+    public static boolean isBinary(byte[] payload) {
+        return payload.length > 0 && payload[0] >= 1 && payload[0] <= BinaryBatchEncoder.VERSION;
+    }
+
+    /**
+     * Decodes one batch and passes every record to handler.
+     * @return the number of records decoded
+     * @throws IOException if the batch is truncated or corrupt; records before the damage have been handed out
+     */
+    public int decode(byte[] payload, Handler handler) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        try {
+            byte version = in.get();
+            if (version < 1 || version > BinaryBatchEncoder.VERSION)
+                throw new IOException("Unsupported batch format version " + version);
+            String[] devices = null;
+            if (version >= 2) {
+                devices = new String[readLength(in)];
+                for (int i = 0; i < devices.length; i++) {
+                    byte[] address = new byte[readLength(in)];
+                    in.get(address);
+                    devices[i] = new String(address, StandardCharsets.UTF_8);
+                }
+            }
+            long count = readVarint(in);
+            long timestamp = in.getLong();
+            float[] values = new float[3];
+            for (long n = 0; n < count; n++) {
+                String device = devices == null ? null : devices[(int) readVarint(in)];
+                int sensorId = (int) readVarint(in);
+                boolean summary = false;
+                if (version >= 3) {
+                    summary = (sensorId & 1) != 0;
+                    sensorId >>>= 1;
+                }
+                long delta = readVarint(in);
+                timestamp += (delta >>> 1) ^ -(delta & 1);
+                if (sensorId <= 0 || sensorId >= SensorIds.COUNT)
+                    throw new IOException("Corrupt binary batch: sensor id " + sensorId + " in record " + n);
+                int dimension = SensorIds.dimension(sensorId);
+                for (int i = 0; i < dimension; i++)
+                    values[i] = in.getFloat();
+                if (summary) {
+                    int readings = (int) readVarint(in);
+                    long window = readVarint(in);
+                    float min = in.getFloat();
+                    float max = in.getFloat();
+                    handler.onSummary(device, sensorId, timestamp, window, readings, min, max, values);
+                } else {
+                    handler.onRecord(device, sensorId, timestamp, values);
+                }
+            }
+            return (int) count;
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt binary batch of " + payload.length + " bytes");
+        }
+    }
+
+    /**
+     * Decodes one batch back into legacy SensorData, with timestamps rendered in the given zone. Devices are kept
+     * only if includeDevice is set, as in {@link JsonBatchEncoder}.
+     */
+    public List<SensorData> decodeSensorData(byte[] payload, final ZoneId zone, final boolean includeDevice)
+            throws IOException {
+        final List<SensorData> records = new ArrayList<SensorData>();
+        final Sample sample = new Sample();
+        final TimestampFormatter timestamps = new TimestampFormatter(zone);
+        decode(payload, new Handler() {
+            @Override
+            public void onRecord(String device, int sensorId, long timestampMillis, float[] values) {
+                if (SensorIds.dimension(sensorId) == 3)
+                    sample.set(sensorId, timestampMillis * 1000000L, values[0], values[1], values[2]);
+                else
+                    sample.set(sensorId, timestampMillis * 1000000L, values[0]);
+                add(device, timestampMillis);
+            }
+
+            @Override
+            public void onSummary(String device, int sensorId, long startMillis, long windowMillis, int count,
+                    float min, float max, float[] mean) {
+                sample.summary(sensorId, startMillis * 1000000L, windowMillis * 1000000L, count, min, max, mean[0]);
+                add(device, startMillis);
+            }
+
+            private void add(String device, long timestampMillis) {
+                SensorData d = SensorData.of(sample, timestamps.format(timestampMillis));
+                if (includeDevice)
+                    d.setDevice(device);
+                records.add(d);
+            }
+        });
+        return records;
+    }
+
+    /* A count or length, checked against the bytes left so a corrupt one cannot size an array */
+    private static int readLength(ByteBuffer in) throws IOException {
+        long n = readVarint(in);
+        if (n < 0 || n > in.remaining())
+            throw new IOException("Corrupt binary batch: length " + n + " with " + in.remaining() + " bytes left");
+        return (int) n;
+    }
+
+    private static long readVarint(ByteBuffer in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
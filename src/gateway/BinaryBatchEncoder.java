@@ -0,0 +1,138 @@
+package gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes a batch of samples in the compact binary wire format, which is a fraction of the size of the JSON array
+ * and needs no text formatting of numbers.
+ *
+ * <pre>
+ * byte     format version, currently 3 (a JSON batch always starts with '[', so collectors can tell them apart)
+ * varint   number of devices in the batch
+ * for each device:
+ *   varint   length of the device address
+ *   bytes    the device address in UTF-8
+ * varint   number of records
+ * int64    base timestamp in epoch milliseconds
+ * for each record:
+ *   varint   index of the record's device in the table above
+ *   varint   numeric sensor id, see {@link SensorIds}, shifted left by one; the low bit is set for a window summary
+ *   varint   zigzag-encoded milliseconds since the previous record, or since the base for the first one
+ *   float32  one value per component of the sensor (1 for scalars, 3 for vectors); the mean for a summary
+ *   for a window summary only:
+ *     varint   number of readings
+ *     varint   window length in milliseconds
+ *     float32  minimum
+ *     float32  maximum
+ * </pre>
+ *
+ * A summary's timestamp is the start of its window. Version 2 is the same without summaries and with the plain sensor
+ * id; version 1 also lacks the device table and the per-record device index.
+ *
+ * All multi-byte numbers are big-endian; varints use 7 bits per byte, least significant group first. The batch is
+ * length-prefixed by the uplink frame that carries it. {@link BinaryBatchDecoder} reads the format back.
+ *
+ * An encoder keeps a scratch buffer between batches and must not be shared between threads.
+ */
+public class BinaryBatchEncoder implements BatchEncoder<Sample> {
+    public static final byte VERSION = 3;
+
+    private byte[] buf = new byte[4096];
+    private int pos;
+    private final List<String> devices = new ArrayList<String>();
+
+    @Override
+    public byte[] encode(List<Sample> batch) {
+        pos = 0;
+        writeByte(VERSION);
+        devices.clear();
+        for (Sample record : batch) {
+            if (deviceIndex(record.device) < 0)
+                devices.add(record.device);
+        }
+        writeVarint(devices.size());
+        for (String device : devices) {
+            byte[] address = device == null ? new byte[0] : device.getBytes(StandardCharsets.UTF_8);
+            writeVarint(address.length);
+            ensure(address.length);
+            System.arraycopy(address, 0, buf, pos, address.length);
+            pos += address.length;
+        }
+        writeVarint(batch.size());
+        long previous = batch.isEmpty() ? 0 : batch.get(0).timestampMillis();
+        writeLong(previous);
+        for (Sample record : batch) {
+            long millis = record.timestampMillis();
+            writeVarint(deviceIndex(record.device));
+            writeVarint(record.sensorId << 1 | (record.isSummary() ? 1 : 0));
+            writeVarint(zigzag(millis - previous));
+            for (int i = 0; i < record.dimension; i++)
+                writeInt(Float.floatToRawIntBits(record.values[i]));
+            if (record.isSummary()) {
+                writeVarint(record.count);
+                writeVarint(record.windowNanos / 1000000L);
+                writeInt(Float.floatToRawIntBits(record.min));
+                writeInt(Float.floatToRawIntBits(record.max));
+            }
+            previous = millis;
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    @Override
+    public int sizeOf(Sample record) {
+        /* device index, sensor id and a sub-minute delta fit one varint byte each */
+        int size = 3 + 4 * record.dimension;
+        /* count, a window of up to 4.6 hours, min and max */
+        return record.isSummary() ? size + 3 + 3 + 8 : size;
+    }
+
+    /* Device addresses come from one string per session, so identity almost always matches first. */
+    private int deviceIndex(String device) {
+        for (int i = 0; i < devices.size(); i++) {
+            String d = devices.get(i);
+            if (d == device || (d != null && d.equals(device)))
+                return i;
+        }
+        return -1;
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+    }
+
+    private void writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    private void writeVarint(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private void writeInt(int v) {
+        ensure(4);
+        buf[pos++] = (byte) (v >>> 24);
+        buf[pos++] = (byte) (v >>> 16);
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    private void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+}
@@ -0,0 +1,115 @@
+package gateway;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches blocking Bluetooth calls that cannot be given a timeout, such as connect(), and acts on the ones that run
+ * longer than a threshold. Wrap each call in {@link #enter}:
+ *
+ * <pre>
+ * CallWatchdog.Call call = watchdog.enter(address + " connect", session::recycle);
+ * try {
+ *     link.connect();
+ * } finally {
+ *     call.close();
+ * }
+ * </pre>
+ *
+ * A call still running past the threshold is reported and its onHung action runs once, on a recovery thread of its
+ * own, so an action that blocks in turn does not stop the watchdog from checking other calls. For a device session
+ * that action disconnects the tag, which makes BlueZ fail the stuck call so the session can back off and reconnect.
+ */
+public class CallWatchdog implements AutoCloseable {
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "call-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    /* grows with the recoveries that are stuck themselves, at most one per hung call */
+    private static final ExecutorService RECOVERY = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "call-watchdog-recovery");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long thresholdNanos;
+    private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hung = new AtomicLong();
+    private final ScheduledFuture<?> check;
+
+    /**
+     * @param thresholdMillis how long a call may run before it counts as hung; calls are checked four times per
+     *            threshold
+     */
+    public CallWatchdog(long thresholdMillis) {
+        if (thresholdMillis <= 0)
+            throw new IllegalArgumentException("Invalid threshold " + thresholdMillis);
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        long period = Math.max(1, thresholdMillis / 4);
+        this.check = TIMER.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching a call; close the returned handle when the call returns.
+     * @param onHung what to do if the call runs past the threshold
+     */
+    public Call enter(String description, Runnable onHung) {
+        Call call = new Call(description, onHung);
+        calls.add(call);
+        return call;
+    }
+
+    /** Number of calls that ran past the threshold so far. */
+    public long getHungCalls() {
+        return hung.get();
+    }
+
+    @Override
+    public void close() {
+        check.cancel(false);
+        calls.clear();
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Call call : calls) {
+            if (call.fired || now - call.startNanos < thresholdNanos)
+                continue;
+            call.fired = true;
+            hung.incrementAndGet();
+            System.err.println(call.description + " hung for "
+                    + TimeUnit.NANOSECONDS.toMillis(now - call.startNanos) + " ms");
+            RECOVERY.execute(() -> {
+                try {
+                    call.onHung.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Recovering from hung " + call.description + " failed: " + e);
+                }
+            });
+        }
+    }
+
+    public final class Call implements AutoCloseable {
+        private final String description;
+        private final Runnable onHung;
+        private final long startNanos = System.nanoTime();
+        private boolean fired;
+
+        private Call(String description, Runnable onHung) {
+            this.description = description;
+            this.onHung = onHung;
+        }
+
+        @Override
+        public void close() {
+            calls.remove(this);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package gateway;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A {@link SensorProfile} flattened into parallel arrays, one row per field, so decoding a value is a loop over a
+ * range of rows with a switch on small integers: no maps, no per-sample lookups, no reflection and no allocation
+ * beyond the pooled samples. Every tag model decodes through the same loop, so adding one costs nothing on the hot
+ * path.
+ *
+ * The tables are immutable; the byte[] decode methods use a scratch buffer, so an instance must not be shared between
+ * threads. Use {@link #copy} for another thread.
+ */
+public final class CompiledProfile {
+    private static final int LINEAR = 0;
+    private static final int EXPONENT_MANTISSA = 1;
+
+    private final SensorProfile profile;
+    /* per service */
+    private final int[] minLength;
+    private final int[] firstField;
+    private final int[] endField;
+    /* per field */
+    private final int[] sensorId;
+    private final int[] type;
+    private final int[] scale;
+    private final double[] factor;
+    private final double[] offset;
+    private final int[] dimension;
+    /* per field, three component offsets each */
+    private final int[] offsets;
+
+    private final ByteBuffer scratch = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+    public CompiledProfile(SensorProfile profile) {
+        this.profile = profile;
+        List<SensorProfile.Service> services = profile.getServices();
+        int fields = 0;
+        for (SensorProfile.Service s : services)
+            fields += s.getFields().size();
+
+        minLength = new int[services.size()];
+        firstField = new int[services.size()];
+        endField = new int[services.size()];
+        sensorId = new int[fields];
+        type = new int[fields];
+        scale = new int[fields];
+        factor = new double[fields];
+        offset = new double[fields];
+        dimension = new int[fields];
+        offsets = new int[fields * 3];
+
+        int f = 0;
+        for (int s = 0; s < services.size(); s++) {
+            SensorProfile.Service service = services.get(s);
+            minLength[s] = service.getMinLength();
+            firstField[s] = f;
+            for (SensorProfile.Field field : service.getFields()) {
+                sensorId[f] = field.sensorId;
+                type[f] = field.type.ordinal();
+                scale[f] = field.scale == SensorProfile.Scale.LINEAR ? LINEAR : EXPONENT_MANTISSA;
+                factor[f] = field.factor;
+                offset[f] = field.offset;
+                dimension[f] = field.offsets.length;
+                for (int k = 0; k < field.offsets.length; k++)
+                    offsets[f * 3 + k] = field.offsets[k];
+                f++;
+            }
+            endField[s] = f;
+        }
+    }
+
+    private CompiledProfile(CompiledProfile tables) {
+        profile = tables.profile;
+        minLength = tables.minLength;
+        firstField = tables.firstField;
+        endField = tables.endField;
+        sensorId = tables.sensorId;
+        type = tables.type;
+        scale = tables.scale;
+        factor = tables.factor;
+        offset = tables.offset;
+        dimension = tables.dimension;
+        offsets = tables.offsets;
+    }
+
+    /** Another decoder over the same tables, with its own scratch buffer, for use on another thread. */
+    public CompiledProfile copy() {
+        return new CompiledProfile(this);
+    }
+
+    public SensorProfile getProfile() {
+        return profile;
+    }
+
+    public int getServiceCount() {
+        return minLength.length;
+    }
+
+    /** Index of the service with the given value characteristic, or -1. Meant for setup, not the hot path. */
+    public int serviceIndex(String valueUuid) {
+        List<SensorProfile.Service> services = profile.getServices();
+        for (int s = 0; s < services.size(); s++) {
+            if (services.get(s).getValue().equalsIgnoreCase(valueUuid))
+                return s;
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the value of a service, read from the buffer's position on without moving it, and hands one sample per
+     * field to out, stamped with timestampNanos and tagged with device.
+     * @return false, handing out nothing, if the value is too short
+     */
+    public boolean decode(int service, ByteBuffer in, long timestampNanos, String device, SamplePool pool,
+            Consumer<Sample> out) {
+        if (in.remaining() < minLength[service])
+            return false;
+        int p = in.position();
+        for (int f = firstField[service], end = endField[service]; f < end; f++) {
+            Sample s = pool.acquire();
+            s.device = device;
+            int o = f * 3;
+            if (dimension[f] == 1)
+                s.set(sensorId[f], timestampNanos, convert(f, in, p + offsets[o]));
+            else
+                s.set(sensorId[f], timestampNanos, convert(f, in, p + offsets[o]),
+                        convert(f, in, p + offsets[o + 1]), convert(f, in, p + offsets[o + 2]));
+            out.accept(s);
+        }
+        return true;
+    }
+
+    public boolean decode(int service, byte[] raw, long timestampNanos, String device, SamplePool pool,
+            Consumer<Sample> out) {
+        scratch.clear();
+        if (raw != null)
+            scratch.put(raw, 0, Math.min(raw.length, scratch.capacity()));
+        scratch.flip();
+        return decode(service, scratch, timestampNanos, device, pool, out);
+    }
+
+    private float convert(int f, ByteBuffer in, int index) {
+        int raw = read(type[f], in, index);
+        if (scale[f] == EXPONENT_MANTISSA)
+            return (float) ((raw & 0x0FFF) * (factor[f] * (1 << ((raw & 0xF000) >> 12))) + offset[f]);
+        return (float) (raw * factor[f] + offset[f]);
+    }
+
+    /* little-endian regardless of the buffer's order */
+    private static int read(int type, ByteBuffer in, int i) {
+        switch (type) {
+        case 0: /* INT8 */
+            return in.get(i);
+        case 1: /* UINT8 */
+            return in.get(i) & 0xff;
+        case 2: /* INT16 */
+            return (short) ((in.get(i) & 0xff) | in.get(i + 1) << 8);
+        case 3: /* UINT16 */
+            return (in.get(i) & 0xff) | (in.get(i + 1) & 0xff) << 8;
+        case 4: /* INT24 */
+            return ((in.get(i) & 0xff) | (in.get(i + 1) & 0xff) << 8 | in.get(i + 2) << 16);
+        case 5: /* UINT24 */
+            return (in.get(i) & 0xff) | (in.get(i + 1) & 0xff) << 8 | (in.get(i + 2) & 0xff) << 16;
+        default: /* INT32 */
+            return (in.get(i) & 0xff) | (in.get(i + 1) & 0xff) << 8 | (in.get(i + 2) & 0xff) << 16
+                    | in.get(i + 3) << 24;
+        }
+    }
+}
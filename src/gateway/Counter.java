@@ -0,0 +1,32 @@
+package gateway;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonic count of events, such as samples or bytes sent, cheap enough to bump on every one of them from any
+ * number of threads. Created and exported by {@link Metrics#counter}.
+ */
+public final class Counter implements CounterMBean {
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    @Override
+    public long getValue() {
+        return value.sum();
+    }
+
+    @Override
+    public void reset() {
+        value.reset();
+    }
+}
@@ -0,0 +1,8 @@
+package gateway;
+
+/** JMX view of a {@link Counter}. */
+public interface CounterMBean {
+    long getValue();
+
+    void reset();
+}
@@ -0,0 +1,162 @@
+package gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Change-only reporting: drops readings that differ from the last one passed on by no more than the noise band of
+ * their sensor, so values that did not really change are never batched or serialized.
+ *
+ * Each sensor id gets a band of max(absolute, relative * |last value|); a vector passes when any of its components
+ * leaves the band. Sensors without a band, and summaries, always pass. So that the receiving end can tell a steady
+ * value from a lost tag, a channel never stays silent for more than maxSilenceMillis while its tag is connected: a
+ * reading arriving after that long passes, and {@link #advance}, called periodically, re-sends the last value of a
+ * channel that received nothing at all, as the tag does not notify values that stay exactly the same.
+ *
+ * The state of a device is the last value passed on per channel and component and the time it was passed on, kept in
+ * primitive arrays indexed by sensor id. Sessions call {@link #accept} concurrently; each device is locked separately.
+ */
+public class DeadbandFilter implements Consumer<Sample> {
+    /* components of the widest reading, the stride of the value arrays */
+    private static final int WIDTH = 3;
+
+    private final long maxSilenceNanos;
+    private final float[] absolute = new float[SensorIds.COUNT];
+    private final float[] relative = new float[SensorIds.COUNT];
+    private final boolean[] filtered = new boolean[SensorIds.COUNT];
+    private final SamplePool pool;
+    private final Consumer<Sample> out;
+    private final ConcurrentHashMap<String, Channels> devices = new ConcurrentHashMap<String, Channels>();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong heartbeats = new AtomicLong();
+
+    /**
+     * @param maxSilenceMillis longest time a filtered channel goes without a reading being passed on
+     * @param pool where dropped readings go back to
+     * @param out receives the readings passed on
+     */
+    public DeadbandFilter(long maxSilenceMillis, SamplePool pool, Consumer<Sample> out) {
+        this.maxSilenceNanos = TimeUnit.MILLISECONDS.toNanos(maxSilenceMillis);
+        this.pool = pool;
+        this.out = out;
+    }
+
+    /**
+     * Filters a sensor with the band max(absolute, relative * |last value|), in the units of the reading. Call it
+     * before the first reading arrives.
+     */
+    public void setBand(int sensorId, float absolute, float relative) {
+        SensorIds.dimension(sensorId);
+        if (absolute < 0 || relative < 0)
+            throw new IllegalArgumentException("Negative band for sensor " + sensorId);
+        this.absolute[sensorId] = absolute;
+        this.relative[sensorId] = relative;
+        filtered[sensorId] = true;
+    }
+
+    @Override
+    public void accept(Sample s) {
+        if (s.sensorId <= 0 || s.sensorId >= SensorIds.COUNT || !filtered[s.sensorId] || s.isSummary()) {
+            out.accept(s);
+            return;
+        }
+        String key = s.device == null ? "" : s.device;
+        Channels channels = devices.get(key);
+        if (channels == null)
+            channels = devices.computeIfAbsent(key, d -> new Channels());
+        if (channels.changed(s)) {
+            passed.incrementAndGet();
+            out.accept(s);
+        } else {
+            dropped.incrementAndGet();
+            pool.release(s);
+        }
+    }
+
+    /**
+     * Re-sends, stamped with nowNanos, the last value of every channel that has been silent for maxSilenceMillis, for
+     * the devices accepted by live. Call it about once a second with the acquisition clock.
+     * @param live whether the tag with the given address, "" for readings without one, is still connected
+     * @return the number of values re-sent
+     */
+    public int advance(long nowNanos, Predicate<String> live) {
+        List<Sample> due = null;
+        for (Map.Entry<String, Channels> e : devices.entrySet()) {
+            if (!live.test(e.getKey()))
+                continue;
+            if (due == null)
+                due = new ArrayList<Sample>();
+            e.getValue().silent(e.getKey(), nowNanos, due);
+        }
+        if (due == null)
+            return 0;
+        heartbeats.addAndGet(due.size());
+        for (Sample s : due)
+            out.accept(s);
+        return due.size();
+    }
+
+    /** Number of filtered readings passed on so far. */
+    public long getPassed() {
+        return passed.get();
+    }
+
+    /** Number of readings dropped as unchanged so far. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Number of last values re-sent by {@link #advance} so far. */
+    public long getHeartbeats() {
+        return heartbeats.get();
+    }
+
+    private final class Channels {
+        private final float[] last = new float[SensorIds.COUNT * WIDTH];
+        private final long[] sentNanos = new long[SensorIds.COUNT];
+        private final boolean[] seen = new boolean[SensorIds.COUNT];
+
+        /* Records s as the last value of its channel when it has to be passed on */
+        synchronized boolean changed(Sample s) {
+            int id = s.sensorId;
+            int base = id * WIDTH;
+            boolean pass = !seen[id] || s.timestampNanos - sentNanos[id] >= maxSilenceNanos;
+            for (int i = 0; i < s.dimension && !pass; i++) {
+                float previous = last[base + i];
+                float band = Math.max(absolute[id], relative[id] * Math.abs(previous));
+                /* NaN compares false and passes */
+                pass = !(Math.abs(s.values[i] - previous) <= band);
+            }
+            if (!pass)
+                return false;
+            System.arraycopy(s.values, 0, last, base, s.dimension);
+            sentNanos[id] = s.timestampNanos;
+            seen[id] = true;
+            return true;
+        }
+
+        /* Adds a copy of the last value of each channel silent for too long to due, and restarts its silence */
+        synchronized void silent(String device, long nowNanos, List<Sample> due) {
+            for (int id = 1; id < SensorIds.COUNT; id++) {
+                if (!seen[id] || nowNanos - sentNanos[id] < maxSilenceNanos)
+                    continue;
+                int base = id * WIDTH;
+                Sample s = pool.acquire();
+                s.device = device.isEmpty() ? null : device;
+                if (SensorIds.dimension(id) == 1)
+                    s.set(id, nowNanos, last[base]);
+                else
+                    s.set(id, nowNanos, last[base], last[base + 1], last[base + 2]);
+                sentNanos[id] = nowNanos;
+                due.add(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package gateway;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothManager;
+import tinyb.BluetoothObject;
+import tinyb.BluetoothType;
+
+/**
+ * Finds tags by address with one discovery session for all of them. Each address gets a blocking
+ * {@link BluetoothManager#find} with the discovery timeout, which returns as soon as BlueZ reports the device, so a
+ * tag in range is handed to the listener within moments instead of at the next four second poll of getDevices().
+ *
+ * The finds run on platform threads: they block in native code, which would pin a virtual thread anyway.
+ */
+public class DeviceDiscovery {
+    public interface Listener {
+        /**
+         * Called on the discovering thread for each tag as soon as it is found.
+         * @param elapsedNanos time since discovery started
+         */
+        void onFound(BluetoothDevice device, long elapsedNanos);
+    }
+
+    private final BluetoothManager manager;
+
+    public DeviceDiscovery(BluetoothManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Looks for all the addresses at once and returns when every one was found or the timeout expired.
+     * @param timeout how long to look; must be positive, since find() treats zero as forever
+     * @return the devices found, in the order of addresses
+     */
+    public Map<String, BluetoothDevice> discover(Collection<String> addresses, Duration timeout, Listener listener)
+            throws InterruptedException {
+        if (timeout.isZero() || timeout.isNegative())
+            throw new IllegalArgumentException("Discovery timeout must be positive: " + timeout);
+        Set<String> targets = new LinkedHashSet<String>(addresses);
+        Map<String, BluetoothDevice> found = new LinkedHashMap<String, BluetoothDevice>();
+        if (targets.isEmpty())
+            return found;
+
+        long start = System.nanoTime();
+        if (!manager.startDiscovery())
+            System.err.println("Could not start discovery, looking among known devices only");
+        ExecutorService finders = Executors.newFixedThreadPool(targets.size(), r -> {
+            Thread t = new Thread(r, "discovery");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            CompletionService<BluetoothObject> results = new ExecutorCompletionService<BluetoothObject>(finders);
+            Map<Future<BluetoothObject>, String> lookups = new HashMap<Future<BluetoothObject>, String>();
+            for (String address : targets)
+                lookups.put(results.submit(() -> manager.find(BluetoothType.DEVICE, null, address, null, timeout)),
+                        address);
+
+            Map<String, BluetoothDevice> byAddress = new HashMap<String, BluetoothDevice>();
+            for (int i = 0; i < targets.size(); i++) {
+                Future<BluetoothObject> result = results.take();
+                BluetoothDevice device;
+                try {
+                    device = (BluetoothDevice) result.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Device lookup failed: " + e.getCause());
+                    continue;
+                }
+                if (device == null)
+                    continue;
+                byAddress.put(lookups.get(result), device);
+                listener.onFound(device, System.nanoTime() - start);
+            }
+
+            for (String address : targets) {
+                BluetoothDevice device = byAddress.get(address);
+                if (device != null)
+                    found.put(address, device);
+            }
+            return found;
+        } finally {
+            /* finds still waiting are bounded by the timeout; their daemon threads just run out */
+            finders.shutdownNow();
+            manager.stopDiscovery();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package gateway;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Owns one tag: connects it, starts its value stream and feeds every decoded reading into the shared sample sink
+ * until it is closed. The session moves through the {@link DeviceState}s: DISCOVERED, CONNECTING, RESOLVING,
+ * STREAMING and, whenever the tag fails to connect or start or drops while streaming, BACKOFF.
+ *
+ * Backoff grows exponentially from one second up to a minute and is jittered, so tags that dropped together do not
+ * all reconnect at the same instant. It is reset once the tag delivers a reading again. Each session runs on its own
+ * thread and only blocks itself while waiting, so a flapping tag does not slow the others down.
+ *
+ * With a {@link CallWatchdog}, connect() and the other calls that cannot time out are watched; one that hangs gets
+ * the session recycled by disconnecting the tag, which fails the stuck call and sends the session to BACKOFF.
+ *
+ * Every transition is counted per (from, to) pair, by the session and, for the whole gateway, in the {@link Metrics}
+ * counters transitions.&lt;from&gt;.&lt;to&gt;, e.g. transitions.streaming.backoff. The session also measures its time
+ * to first sample: from an origin given by the caller, usually the start of discovery, to the first reading delivered
+ * to the sink.
+ */
+public class DeviceSession implements Runnable {
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000;
+    private static final long POLL_MILLIS = 1000;
+    private static final DeviceState[] STATES = DeviceState.values();
+
+    private final SensorTagLink link;
+    private final SamplePool pool;
+    private final Consumer<Sample> sink;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final CallWatchdog watchdog;
+    private static final LatencyHistogram CONNECT = Metrics.histogram("gatt.connect");
+    private static final LatencyHistogram IS_CONNECTED = Metrics.histogram("gatt.isConnected");
+    private static final LatencyHistogram DISCONNECT = Metrics.histogram("gatt.disconnect");
+    private static final Counter SAMPLES = Metrics.counter("samples");
+    private static final Counter CONNECTS = Metrics.counter("connects");
+    private static final Counter RECONNECTS = Metrics.counter("reconnects");
+    private static final Counter ERRORS = Metrics.counter("errors.session");
+    /* by from.ordinal() * STATES.length + to.ordinal(), registered the first time a session takes the transition */
+    private static final Counter[] TRANSITION_COUNTERS = new Counter[STATES.length * STATES.length];
+
+    private final AtomicLong recycles = new AtomicLong();
+    private final SensorTagReading reading = new SensorTagReading();
+    private final AtomicLong readings = new AtomicLong();
+    private final AtomicLongArray transitions = new AtomicLongArray(STATES.length * STATES.length);
+    private final long originNanos;
+    private volatile long firstSampleNanos = -1;
+    private volatile DeviceState state = DeviceState.DISCOVERED;
+    private volatile long stateSinceNanos = System.nanoTime();
+    private long backoffMillis;
+    private volatile boolean running = true;
+    private volatile Thread thread;
+
+    public DeviceSession(SensorTagLink link, SamplePool pool, Consumer<Sample> sink) {
+        this(link, pool, sink, System.nanoTime());
+    }
+
+    /**
+     * @param originNanos System.nanoTime() the time to first sample is measured from
+     */
+    public DeviceSession(SensorTagLink link, SamplePool pool, Consumer<Sample> sink, long originNanos) {
+        this(link, pool, sink, originNanos, DEFAULT_MIN_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, null);
+    }
+
+    /**
+     * @param watchdog watches the calls that cannot time out, or null
+     */
+    public DeviceSession(SensorTagLink link, SamplePool pool, Consumer<Sample> sink, long originNanos,
+            long minBackoffMillis, long maxBackoffMillis, CallWatchdog watchdog) {
+        if (minBackoffMillis <= 0 || maxBackoffMillis < minBackoffMillis)
+            throw new IllegalArgumentException("Invalid backoff range " + minBackoffMillis + ".." + maxBackoffMillis);
+        this.link = link;
+        this.pool = pool;
+        this.sink = sink;
+        this.originNanos = originNanos;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.backoffMillis = minBackoffMillis;
+        this.watchdog = watchdog;
+    }
+
+    public String getAddress() {
+        return link.getAddress();
+    }
+
+    public DeviceState getState() {
+        return state;
+    }
+
+    /** System.nanoTime() of the last transition. */
+    public long getStateSinceNanos() {
+        return stateSinceNanos;
+    }
+
+    /** Number of times the session went from one state to the other. */
+    public long getTransitions(DeviceState from, DeviceState to) {
+        return transitions.get(from.ordinal() * STATES.length + to.ordinal());
+    }
+
+    /** Number of times the watchdog recycled the session because a call hung. */
+    public long getRecycles() {
+        return recycles.get();
+    }
+
+    /**
+     * Recovers from a hung call by disconnecting the tag. Called by the watchdog; the session thread then sees the
+     * call fail and backs off.
+     */
+    public void recycle() {
+        recycles.incrementAndGet();
+        System.err.println("Recycling the session of " + link.getAddress());
+        link.disconnect();
+    }
+
+    /** Number of readings delivered to the sink so far. */
+    public long getReadings() {
+        return readings.get();
+    }
+
+    /** Nanoseconds from the origin to the first reading, or -1 if there was none yet. */
+    public long getTimeToFirstSampleNanos() {
+        return firstSampleNanos;
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (running) {
+                stream();
+                if (running)
+                    backOff();
+            }
+        } catch (InterruptedException e) {
+            /* close() interrupts the session to stop it */
+        } finally {
+            thread = null;
+            enter(DeviceState.STOPPED);
+        }
+    }
+
+    /** Asks the session to stop; it disconnects the tag on its way out. */
+    public void close() {
+        running = false;
+        Thread t = thread;
+        if (t != null)
+            t.interrupt();
+    }
+
+    private void stream() throws InterruptedException {
+        String address = link.getAddress();
+        try {
+            if (state != DeviceState.DISCOVERED)
+                RECONNECTS.increment();
+            enter(DeviceState.CONNECTING);
+            boolean connected;
+            long connectStart = System.nanoTime();
+            CallWatchdog.Call connectCall = watch("connect");
+            try {
+                connected = link.connect();
+            } finally {
+                unwatch(connectCall);
+                CONNECT.recordSince(connectStart);
+            }
+            CONNECTS.increment();
+            if (!connected) {
+                ERRORS.increment();
+                System.err.println("Could not connect " + address);
+                return;
+            }
+            long connectedNanos = System.nanoTime();
+            enter(DeviceState.RESOLVING);
+            if (!link.start())
+                return;
+            enter(DeviceState.STREAMING);
+            System.out.println(address + " is streaming "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedNanos) + " ms after connecting");
+
+            while (running) {
+                if (link.poll(reading, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    SAMPLES.add(reading.forEachNewSample(pool, sink));
+                    backoffMillis = minBackoffMillis;
+                    if (readings.incrementAndGet() == 1) {
+                        firstSampleNanos = System.nanoTime() - originNanos;
+                        System.out.println(address + " first sample after "
+                                + TimeUnit.NANOSECONDS.toMillis(firstSampleNanos) + " ms");
+                    }
+                } else {
+                    long checkStart = System.nanoTime();
+                    CallWatchdog.Call checkCall = watch("isConnected");
+                    try {
+                        connected = link.isConnected();
+                    } finally {
+                        unwatch(checkCall);
+                        IS_CONNECTED.recordSince(checkStart);
+                    }
+                    if (!connected) {
+                        ERRORS.increment();
+                        System.err.println(address + " disconnected");
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            ERRORS.increment();
+            System.err.println(address + " failed: " + e);
+        } finally {
+            long disconnectStart = System.nanoTime();
+            CallWatchdog.Call disconnectCall = watch("disconnect");
+            try {
+                link.stop();
+                link.disconnect();
+                DISCONNECT.recordSince(disconnectStart);
+            } catch (RuntimeException e) {
+                System.err.println(address + " did not disconnect cleanly: " + e);
+            } finally {
+                unwatch(disconnectCall);
+            }
+        }
+    }
+
+    private CallWatchdog.Call watch(String call) {
+        return watchdog == null ? null : watchdog.enter(link.getAddress() + " " + call, this::recycle);
+    }
+
+    private static void unwatch(CallWatchdog.Call call) {
+        if (call != null)
+            call.close();
+    }
+
+    /* Sleeps between half and all of the current backoff, then doubles it */
+    private void backOff() throws InterruptedException {
+        enter(DeviceState.BACKOFF);
+        long half = backoffMillis / 2;
+        long delay = half + ThreadLocalRandom.current().nextLong(backoffMillis - half + 1);
+        System.err.println(link.getAddress() + " retrying in " + delay + " ms");
+        backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+        Thread.sleep(delay);
+    }
+
+    private void enter(DeviceState next) {
+        DeviceState previous = state;
+        int transition = previous.ordinal() * STATES.length + next.ordinal();
+        transitions.incrementAndGet(transition);
+        transitionCounter(transition).increment();
+        state = next;
+        stateSinceNanos = System.nanoTime();
+    }
+
+    /* Racing sessions may both look the counter up, but Metrics hands them the same one */
+    private static Counter transitionCounter(int transition) {
+        Counter c = TRANSITION_COUNTERS[transition];
+        if (c == null) {
+            String from = STATES[transition / STATES.length].name().toLowerCase(Locale.ROOT);
+            String to = STATES[transition % STATES.length].name().toLowerCase(Locale.ROOT);
+            c = TRANSITION_COUNTERS[transition] = Metrics.counter("transitions." + from + "." + to);
+        }
+        return c;
+    }
+}
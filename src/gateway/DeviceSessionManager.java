@@ -0,0 +1,139 @@
+package gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs one {@link DeviceSession} per tag, all feeding the same sample sink (uplink batcher, local log and so on).
+ *
+ * Sessions spend nearly all their time blocked in native Bluetooth calls, which would pin a virtual thread to its
+ * carrier, so they run on a fixed pool of platform threads instead. Each session holds its thread for as long as it
+ * runs, so the pool size is the maximum number of tags.
+ */
+public class DeviceSessionManager implements AutoCloseable {
+    private final ExecutorService executor;
+    private final SamplePool pool;
+    private final Consumer<Sample> sink;
+    private final CallWatchdog watchdog;
+    private final List<DeviceSession> sessions = new CopyOnWriteArrayList<DeviceSession>();
+
+    public DeviceSessionManager(int maxDevices, SamplePool pool, Consumer<Sample> sink) {
+        this(maxDevices, pool, sink, null);
+    }
+
+    /**
+     * @param watchdog recycles sessions whose Bluetooth calls hang, or null
+     */
+    public DeviceSessionManager(int maxDevices, SamplePool pool, Consumer<Sample> sink, CallWatchdog watchdog) {
+        this.executor = newSessionExecutor(maxDevices);
+        this.pool = pool;
+        this.sink = sink;
+        this.watchdog = watchdog;
+    }
+
+    public DeviceSession start(SensorTagLink link) {
+        return start(link, System.nanoTime());
+    }
+
+    /**
+     * @param originNanos System.nanoTime() the session's time to first sample is measured from
+     */
+    public DeviceSession start(SensorTagLink link, long originNanos) {
+        DeviceSession session = new DeviceSession(link, pool, sink, originNanos,
+                DeviceSession.DEFAULT_MIN_BACKOFF_MILLIS, DeviceSession.DEFAULT_MAX_BACKOFF_MILLIS, watchdog);
+        sessions.add(session);
+        executor.execute(session);
+        return session;
+    }
+
+    public List<DeviceSession> getSessions() {
+        return new ArrayList<DeviceSession>(sessions);
+    }
+
+    /** Total number of readings delivered by all sessions. */
+    public long getReadings() {
+        long n = 0;
+        for (DeviceSession s : sessions)
+            n += s.getReadings();
+        return n;
+    }
+
+    /** Number of sessions currently in the given state. */
+    public int getSessionsIn(DeviceState state) {
+        int n = 0;
+        for (DeviceSession s : sessions) {
+            if (s.getState() == state)
+                n++;
+        }
+        return n;
+    }
+
+    /** Whether the session of the tag with the given address is streaming. */
+    public boolean isStreaming(String address) {
+        for (DeviceSession s : sessions) {
+            if (s.getAddress().equals(address) && s.getState() == DeviceState.STREAMING)
+                return true;
+        }
+        return false;
+    }
+
+    /** Session count per state, e.g. "DISCOVERED=0 CONNECTING=0 RESOLVING=1 STREAMING=3 BACKOFF=1 STOPPED=0". */
+    public String getStateSummary() {
+        StringBuilder out = new StringBuilder();
+        for (DeviceState state : DeviceState.values()) {
+            if (out.length() > 0)
+                out.append(' ');
+            out.append(state).append('=').append(getSessionsIn(state));
+        }
+        return out.toString();
+    }
+
+    /** Number of times any session went from one state to the other. */
+    public long getTransitions(DeviceState from, DeviceState to) {
+        long n = 0;
+        for (DeviceSession s : sessions)
+            n += s.getTransitions(from, to);
+        return n;
+    }
+
+    /**
+     * Slowest time to first sample among the sessions, or -1 while any session has not delivered a reading yet.
+     */
+    public long getTimeToFirstSampleNanos() {
+        long slowest = -1;
+        for (DeviceSession s : sessions) {
+            long t = s.getTimeToFirstSampleNanos();
+            if (t < 0)
+                return -1;
+            slowest = Math.max(slowest, t);
+        }
+        return slowest;
+    }
+
+    /** Stops every session and waits for them to disconnect their tags. */
+    @Override
+    public void close() {
+        for (DeviceSession s : sessions)
+            s.close();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                System.err.println("Some device sessions did not stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static ExecutorService newSessionExecutor(int maxDevices) {
+        return Executors.newFixedThreadPool(maxDevices, r -> {
+            Thread t = new Thread(r, "device-session");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
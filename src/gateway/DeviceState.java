@@ -0,0 +1,15 @@
+package gateway;
+
+/**
+ * Lifecycle of a {@link DeviceSession}. A session starts DISCOVERED, goes through CONNECTING and RESOLVING to
+ * STREAMING, and falls back to BACKOFF from any of them when the tag fails or drops, after which it tries CONNECTING
+ * again. STOPPED is final.
+ */
+public enum DeviceState {
+    DISCOVERED,
+    CONNECTING,
+    RESOLVING,
+    STREAMING,
+    BACKOFF,
+    STOPPED
+}
@@ -0,0 +1,229 @@
+package gateway;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local text log written off the sampling thread.
+ *
+ * Records are offered to a bounded queue; a writer thread renders them into a large buffer and writes it through a
+ * FileChannel when the buffer is full or its oldest line has waited flushMillis. Offering never blocks: if the disk
+ * stalls long enough for the queue to fill up, new records are dropped and counted instead of delaying acquisition.
+ *
+ * The active file is &lt;name&gt;.log. It is rotated to &lt;name&gt;-yyyyMMdd-HHmmss.log once it exceeds maxBytes or
+ * gets older than maxAgeMillis, and rotated files are optionally gzipped by a background thread.
+ */
+public class FileSink<T> implements Closeable {
+    /** Appends the text of one record, including its line terminator. */
+    public interface Renderer<T> {
+        void render(T record, StringBuilder out);
+    }
+
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final File dir;
+    private final String name;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final long flushMillis;
+    private final boolean compress;
+    private final Renderer<? super T> renderer;
+    private final Consumer<? super T> release;
+    private final ArrayBlockingQueue<T> queue;
+    private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    private final StringBuilder line = new StringBuilder(256);
+    private final ExecutorService compressor;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private FileChannel channel;
+    private long fileBytes;
+    private long openedMillis;
+
+    /**
+     * @param release called with each record once it has been rendered or dropped, e.g. to return it to a pool
+     */
+    public FileSink(File dir, String name, long maxBytes, long maxAgeMillis, long flushMillis, boolean compress,
+            int queueCapacity, Renderer<? super T> renderer, Consumer<? super T> release) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create log directory " + dir);
+        this.dir = dir;
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.flushMillis = flushMillis;
+        this.compress = compress;
+        this.renderer = renderer;
+        this.release = release;
+        this.queue = new ArrayBlockingQueue<T>(queueCapacity);
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "file-sink-compressor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        open();
+        writer = new Thread(this::write, "file-sink-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a record for writing without blocking.
+     * @return false if the queue was full and the record was dropped
+     */
+    public boolean offer(T record) {
+        if (queue.offer(record))
+            return true;
+        dropped.incrementAndGet();
+        release.accept(record);
+        return false;
+    }
+
+    /** Number of records dropped because the writer could not keep up. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Writes everything queued so far, closes the file and waits for pending compressions. */
+    @Override
+    public void close() {
+        /* no interrupt here: it would close the FileChannel under the writer */
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        long flushDeadline = Long.MAX_VALUE;
+        while (running || !queue.isEmpty()) {
+            try {
+                long now = System.currentTimeMillis();
+                T record = running ? queue.poll(Math.max(1, Math.min(flushDeadline - now, 1000)),
+                        TimeUnit.MILLISECONDS) : queue.poll();
+                if (record != null) {
+                    if (chunk.position() == 0)
+                        flushDeadline = System.currentTimeMillis() + flushMillis;
+                    append(record);
+                }
+                if (chunk.position() > 0 && (record == null || System.currentTimeMillis() >= flushDeadline)) {
+                    flush();
+                    flushDeadline = Long.MAX_VALUE;
+                }
+                boolean expired = System.currentTimeMillis() - openedMillis >= maxAgeMillis;
+                if (fileBytes >= maxBytes || (fileBytes > 0 && expired))
+                    rotate();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                System.err.println("Log " + name + " write failed: " + e);
+                chunk.clear();
+            }
+        }
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Log " + name + " close failed: " + e);
+        }
+    }
+
+    private void append(T record) throws IOException {
+        line.setLength(0);
+        try {
+            renderer.render(record, line);
+        } finally {
+            release.accept(record);
+        }
+        int n = line.length();
+        if (chunk.remaining() < n)
+            flush();
+        for (int i = 0; i < n && chunk.hasRemaining(); i++) {
+            char c = line.charAt(i);
+            chunk.put(c < 0x80 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private void flush() throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining())
+            fileBytes += channel.write(chunk);
+        chunk.clear();
+    }
+
+    private void open() throws IOException {
+        File active = activeFile();
+        channel = FileChannel.open(active.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        openedMillis = System.currentTimeMillis();
+    }
+
+    private void rotate() throws IOException {
+        flush();
+        channel.close();
+        String stamp = name + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File candidate = new File(dir, stamp + ".log");
+        for (int i = 1; candidate.exists() || new File(candidate.getPath() + ".gz").exists(); i++)
+            candidate = new File(dir, stamp + "-" + i + ".log");
+        final File rotated = candidate;
+        boolean renamed = activeFile().renameTo(rotated);
+        if (!renamed)
+            System.err.println("Could not rotate " + activeFile() + " to " + rotated);
+        else if (compress)
+            compressor.execute(() -> gzip(rotated));
+        open();
+        /* keep appending to the same file and try again after another maxBytes or maxAgeMillis, not on every write */
+        if (!renamed)
+            fileBytes = 0;
+    }
+
+    private File activeFile() {
+        return new File(dir, name + ".log");
+    }
+
+    private static void gzip(File file) {
+        File gz = new File(file.getPath() + ".gz");
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(gz), buf.length)) {
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+        } catch (IOException e) {
+            System.err.println("Could not compress " + file + ": " + e);
+            gz.delete();
+            return;
+        }
+        if (!file.delete())
+            System.err.println("Could not delete " + file + " after compressing it");
+    }
+}
@@ -0,0 +1,121 @@
+package gateway;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import tinyb.BluetoothGattCharacteristic;
+
+/**
+ * The part of a device's GATT tree the gateway uses: service UUIDs, the characteristic UUIDs under each, and which of
+ * those characteristics can notify or indicate. Immutable; stored by {@link GattLayoutCache} as one line of the form
+ * {@code service=characteristic,characteristic*;service=...}, where * marks a characteristic that can notify.
+ */
+public class GattLayout {
+    private final Map<String, List<String>> services;
+    private final Set<String> notifying;
+
+    public GattLayout(Map<String, List<String>> services, Set<String> notifying) {
+        Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> e : services.entrySet())
+            copy.put(e.getKey(), Collections.unmodifiableList(new ArrayList<String>(e.getValue())));
+        this.services = Collections.unmodifiableMap(copy);
+        this.notifying = Collections.unmodifiableSet(new HashSet<String>(notifying));
+    }
+
+    /**
+     * Captures the layout of the given services and characteristics from a resolver that found all of them.
+     * @return null if any of them is missing from the resolver
+     */
+    public static GattLayout of(GattResolver resolver, String[] serviceUuids, String[][] characteristicUuids) {
+        Map<String, List<String>> services = new LinkedHashMap<String, List<String>>();
+        Set<String> notifying = new HashSet<String>();
+        for (int i = 0; i < serviceUuids.length; i++) {
+            if (resolver.getService(serviceUuids[i]) == null)
+                return null;
+            List<String> characteristics = new ArrayList<String>();
+            for (String uuid : characteristicUuids[i]) {
+                BluetoothGattCharacteristic characteristic = resolver.getCharacteristic(uuid);
+                if (characteristic == null)
+                    return null;
+                characteristics.add(key(uuid));
+                if (canNotify(characteristic.getFlags()))
+                    notifying.add(key(uuid));
+            }
+            services.put(key(serviceUuids[i]), characteristics);
+        }
+        return new GattLayout(services, notifying);
+    }
+
+    /** Service UUIDs mapped to the characteristic UUIDs under them, in lower case. */
+    public Map<String, List<String>> getServices() {
+        return services;
+    }
+
+    public boolean canNotify(String characteristicUuid) {
+        return notifying.contains(key(characteristicUuid));
+    }
+
+    public String encode() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, List<String>> e : services.entrySet()) {
+            if (out.length() > 0)
+                out.append(';');
+            out.append(e.getKey()).append('=');
+            boolean first = true;
+            for (String uuid : e.getValue()) {
+                if (!first)
+                    out.append(',');
+                out.append(uuid);
+                if (notifying.contains(uuid))
+                    out.append('*');
+                first = false;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if text is not the output of {@link #encode}
+     */
+    public static GattLayout decode(String text) {
+        Map<String, List<String>> services = new LinkedHashMap<String, List<String>>();
+        Set<String> notifying = new HashSet<String>();
+        for (String service : text.split(";")) {
+            int eq = service.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("Not a GATT layout: " + text);
+            List<String> characteristics = new ArrayList<String>();
+            for (String uuid : service.substring(eq + 1).split(",")) {
+                if (uuid.isEmpty())
+                    continue;
+                if (uuid.endsWith("*")) {
+                    uuid = uuid.substring(0, uuid.length() - 1);
+                    notifying.add(key(uuid));
+                }
+                characteristics.add(key(uuid));
+            }
+            services.put(key(service.substring(0, eq)), characteristics);
+        }
+        return new GattLayout(services, notifying);
+    }
+
+    private static boolean canNotify(String[] flags) {
+        if (flags == null)
+            return false;
+        for (String flag : flags) {
+            if ("notify".equals(flag) || "indicate".equals(flag))
+                return true;
+        }
+        return false;
+    }
+
+    private static String key(String uuid) {
+        return uuid.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,83 @@
+package gateway;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Remembers the {@link GattLayout} of each tag across restarts, in a properties file keyed by device address and
+ * modalias. The modalias carries the firmware version, so a tag that is reflashed gets a new entry instead of a stale
+ * layout. The file is rewritten through a temporary file and a rename whenever an entry changes, which only happens
+ * when a tag is seen for the first time.
+ */
+public class GattLayoutCache {
+    private final File file;
+    private final Properties entries = new Properties();
+
+    public GattLayoutCache(File file) {
+        this.file = file;
+        if (!file.exists())
+            return;
+        try (InputStream in = new FileInputStream(file)) {
+            entries.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable GATT layout cache " + file + ": " + e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the layout stored for the device, or null if there is none or modalias is unknown
+     */
+    public synchronized GattLayout get(String address, String modalias) {
+        if (modalias == null)
+            return null;
+        String text = entries.getProperty(key(address, modalias));
+        if (text == null)
+            return null;
+        try {
+            return GattLayout.decode(text);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Dropping corrupt GATT layout of " + address + ": " + e.getMessage());
+            remove(address, modalias);
+            return null;
+        }
+    }
+
+    public synchronized void put(String address, String modalias, GattLayout layout) {
+        if (modalias == null)
+            return;
+        String text = layout.encode();
+        if (text.equals(entries.setProperty(key(address, modalias), text)))
+            return;
+        save();
+    }
+
+    public synchronized void remove(String address, String modalias) {
+        if (modalias != null && entries.remove(key(address, modalias)) != null)
+            save();
+    }
+
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                entries.store(out, "GATT layouts by address/modalias");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not save GATT layout cache " + file + ": " + e);
+        }
+    }
+
+    private static String key(String address, String modalias) {
+        return address + "/" + modalias;
+    }
+}
@@ -0,0 +1,144 @@
+package gateway;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothGattCharacteristic;
+import tinyb.BluetoothGattDescriptor;
+import tinyb.BluetoothGattService;
+
+/**
+ * Resolves the GATT objects of a connected device by UUID. The tree of services, characteristics and descriptors is
+ * enumerated once into UUID-keyed indexes; only entries still missing after that are waited for, with
+ * {@link BluetoothDevice#find(String, Duration)} and {@link BluetoothGattService#find(String, Duration)}, which
+ * return as soon as BlueZ exposes them.
+ *
+ * Characteristic and descriptor UUIDs are assumed unique on the device, which holds for the SensorTag; if one
+ * repeats, the first one enumerated wins. UUIDs are matched case-insensitively.
+ */
+public class GattResolver {
+    private final BluetoothDevice device;
+    private final Map<String, BluetoothGattService> services = new HashMap<String, BluetoothGattService>();
+    private final Map<String, BluetoothGattCharacteristic> characteristics =
+            new HashMap<String, BluetoothGattCharacteristic>();
+    private final Map<String, BluetoothGattDescriptor> descriptors = new HashMap<String, BluetoothGattDescriptor>();
+
+    public GattResolver(BluetoothDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Makes sure every service in serviceUuids and every characteristic in characteristicUuids[i] of service i is
+     * resolved, waiting up to timeout in total for those the device has not exposed yet.
+     * @return true if everything was found
+     */
+    public boolean resolve(String[] serviceUuids, String[][] characteristicUuids, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        index();
+
+        boolean complete = true;
+        for (int i = 0; i < serviceUuids.length; i++) {
+            BluetoothGattService service = getService(serviceUuids[i]);
+            if (service == null) {
+                Duration left = remaining(deadline);
+                if (left == null || (service = device.find(serviceUuids[i], left)) == null) {
+                    complete = false;
+                    continue;
+                }
+                index(service);
+            }
+            for (String uuid : characteristicUuids[i]) {
+                if (getCharacteristic(uuid) != null)
+                    continue;
+                Duration left = remaining(deadline);
+                BluetoothGattCharacteristic characteristic = left == null ? null : service.find(uuid, left);
+                if (characteristic == null)
+                    complete = false;
+                else
+                    index(characteristic);
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Resolves a layout known from an earlier connection straight through find() lookups, without enumerating the
+     * rest of the tree, waiting up to timeout in total.
+     * @return true if everything in the layout was found
+     */
+    public boolean resolve(GattLayout layout, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Map.Entry<String, List<String>> e : layout.getServices().entrySet()) {
+            BluetoothGattService service = getService(e.getKey());
+            if (service == null) {
+                Duration left = remaining(deadline);
+                if (left == null || (service = device.find(e.getKey(), left)) == null)
+                    return false;
+                services.put(key(e.getKey()), service);
+            }
+            for (String uuid : e.getValue()) {
+                if (getCharacteristic(uuid) != null)
+                    continue;
+                Duration left = remaining(deadline);
+                BluetoothGattCharacteristic characteristic = left == null ? null : service.find(uuid, left);
+                if (characteristic == null)
+                    return false;
+                characteristics.put(key(uuid), characteristic);
+            }
+        }
+        return true;
+    }
+
+    /** Enumerates every service the device currently exposes, with their characteristics and descriptors. */
+    public void index() {
+        List<BluetoothGattService> list = device.getServices();
+        if (list == null)
+            return;
+        for (BluetoothGattService service : list)
+            index(service);
+    }
+
+    public BluetoothGattService getService(String uuid) {
+        return services.get(key(uuid));
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic(String uuid) {
+        return characteristics.get(key(uuid));
+    }
+
+    public BluetoothGattDescriptor getDescriptor(String uuid) {
+        return descriptors.get(key(uuid));
+    }
+
+    private void index(BluetoothGattService service) {
+        services.putIfAbsent(key(service.getUuid()), service);
+        List<BluetoothGattCharacteristic> list = service.getCharacteristics();
+        if (list == null)
+            return;
+        for (BluetoothGattCharacteristic characteristic : list)
+            index(characteristic);
+    }
+
+    private void index(BluetoothGattCharacteristic characteristic) {
+        characteristics.putIfAbsent(key(characteristic.getUuid()), characteristic);
+        List<BluetoothGattDescriptor> list = characteristic.getDescriptors();
+        if (list == null)
+            return;
+        for (BluetoothGattDescriptor descriptor : list)
+            descriptors.putIfAbsent(key(descriptor.getUuid()), descriptor);
+    }
+
+    /* find() waits forever on a zero duration, so an expired deadline must not be passed on */
+    private static Duration remaining(long deadline) {
+        long left = deadline - System.nanoTime();
+        return left < 1000000 ? null : Duration.ofNanos(left);
+    }
+
+    private static String key(String uuid) {
+        return uuid.toLowerCase(Locale.ROOT);
+    }
+}
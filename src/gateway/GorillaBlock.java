@@ -0,0 +1,313 @@
+package gateway;
+
+import java.util.Arrays;
+
+/**
+ * One compressed block of a sensor channel in the local archive: up to a fixed number of points, each a timestamp in
+ * milliseconds and one value per component, packed the way Facebook's Gorilla packs time series.
+ *
+ * The first timestamp is kept outside the bit stream, in the block header. Every other timestamp is written as the
+ * change of its delta to the previous one: one bit when readings come at a steady rate, 9 to 16 bits for the usual
+ * jitter of a notification. Each component is written as the XOR with its previous value: one bit when it did not
+ * change, otherwise its meaningful bits, reusing the leading and trailing zero counts of the previous value when they
+ * fit. SensorTag values are quantised to a few bits of resolution, so most XORs are short.
+ *
+ * Points are interleaved in a single stream (timestamp, then each component), so a block is read front to back with
+ * a {@link Cursor} without decoding anything else. Blocks are reused with {@link #reset}.
+ */
+public final class GorillaBlock {
+    private final int dimension;
+    private final int capacity;
+    private final BitWriter bits = new BitWriter();
+    private final int[] previous;
+    private final int[] leading;
+    private final int[] trailing;
+    private int size;
+    private long firstMillis;
+    private long lastMillis;
+    private long lastDelta;
+
+    /**
+     * @param dimension components per point, 1 or 3
+     * @param capacity points per block
+     */
+    public GorillaBlock(int dimension, int capacity) {
+        if (capacity < 1 || capacity > 65535)
+            throw new IllegalArgumentException("Block capacity " + capacity + " out of range");
+        this.dimension = dimension;
+        this.capacity = capacity;
+        this.previous = new int[dimension];
+        this.leading = new int[dimension];
+        this.trailing = new int[dimension];
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public long getFirstMillis() {
+        return firstMillis;
+    }
+
+    public long getLastMillis() {
+        return lastMillis;
+    }
+
+    /** Appends a point; the block must not be full. */
+    public void add(long timestampMillis, float[] values) {
+        if (size == capacity)
+            throw new IllegalStateException("Block is full");
+        if (size == 0) {
+            firstMillis = timestampMillis;
+            lastDelta = 0;
+            for (int i = 0; i < dimension; i++) {
+                previous[i] = Float.floatToRawIntBits(values[i]);
+                leading[i] = -1;
+                bits.write(previous[i] & 0xFFFFFFFFL, 32);
+            }
+        } else {
+            long delta = timestampMillis - lastMillis;
+            writeDeltaOfDelta(delta - lastDelta);
+            lastDelta = delta;
+            for (int i = 0; i < dimension; i++)
+                writeXor(i, Float.floatToRawIntBits(values[i]));
+        }
+        lastMillis = timestampMillis;
+        size++;
+    }
+
+    /** Empties the block for the next points of the channel. */
+    public void reset() {
+        bits.clear();
+        size = 0;
+    }
+
+    /** The encoded points, valid up to {@link #length()} until the next change. */
+    public byte[] bytes() {
+        return bits.buf;
+    }
+
+    /** Length of the encoded points in bytes. */
+    public int length() {
+        return bits.length();
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            bits.write(0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            bits.write(0b10, 2);
+            bits.write(dod & 0x7F, 7);
+        } else if (dod >= -256 && dod < 256) {
+            bits.write(0b110, 3);
+            bits.write(dod & 0x1FF, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            bits.write(0b1110, 4);
+            bits.write(dod & 0xFFF, 12);
+        } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            bits.write(0b11110, 5);
+            bits.write(dod & 0xFFFFFFFFL, 32);
+        } else {
+            bits.write(0b11111, 5);
+            bits.write(dod, 64);
+        }
+    }
+
+    private void writeXor(int component, int value) {
+        int xor = value ^ previous[component];
+        previous[component] = value;
+        if (xor == 0) {
+            bits.write(0, 1);
+            return;
+        }
+        int lead = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+        int trail = Integer.numberOfTrailingZeros(xor);
+        if (leading[component] >= 0 && lead >= leading[component] && trail >= trailing[component]) {
+            /* fits in the window of the previous value */
+            int meaningful = 32 - leading[component] - trailing[component];
+            bits.write(0b10, 2);
+            bits.write((xor >>> trailing[component]) & mask(meaningful), meaningful);
+        } else {
+            int meaningful = 32 - lead - trail;
+            bits.write(0b11, 2);
+            bits.write(lead, 5);
+            bits.write(meaningful - 1, 5);
+            bits.write((xor >>> trail) & mask(meaningful), meaningful);
+            leading[component] = lead;
+            trailing[component] = trail;
+        }
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    /**
+     * Reads the points of one encoded block in order. Values are written into one array owned by the cursor, so
+     * reading does not allocate.
+     */
+    public static final class Cursor {
+        private final BitReader bits = new BitReader();
+        private final float[] values = new float[3];
+        private final int[] previous = new int[3];
+        private final int[] leading = new int[3];
+        private final int[] trailing = new int[3];
+        private int dimension;
+        private int remaining;
+        private int read;
+        private long millis;
+        private long delta;
+
+        /** Starts reading count points of a block whose first point is at firstMillis. */
+        public Cursor reset(byte[] data, int length, int dimension, int count, long firstMillis) {
+            bits.reset(data, length);
+            this.dimension = dimension;
+            this.remaining = count;
+            this.read = 0;
+            this.millis = firstMillis;
+            this.delta = 0;
+            return this;
+        }
+
+        /** Moves to the next point; false at the end of the block. */
+        public boolean next() {
+            if (remaining == 0)
+                return false;
+            if (read == 0) {
+                for (int i = 0; i < dimension; i++) {
+                    previous[i] = (int) bits.read(32);
+                    values[i] = Float.intBitsToFloat(previous[i]);
+                }
+            } else {
+                delta += readDeltaOfDelta();
+                millis += delta;
+                for (int i = 0; i < dimension; i++)
+                    values[i] = Float.intBitsToFloat(readXor(i));
+            }
+            read++;
+            remaining--;
+            return true;
+        }
+
+        public long timestampMillis() {
+            return millis;
+        }
+
+        public int dimension() {
+            return dimension;
+        }
+
+        /** Components of the current point; only the first dimension() are meaningful. */
+        public float[] values() {
+            return values;
+        }
+
+        private long readDeltaOfDelta() {
+            if (bits.read(1) == 0)
+                return 0;
+            if (bits.read(1) == 0)
+                return signed(bits.read(7), 7);
+            if (bits.read(1) == 0)
+                return signed(bits.read(9), 9);
+            if (bits.read(1) == 0)
+                return signed(bits.read(12), 12);
+            if (bits.read(1) == 0)
+                return (int) bits.read(32);
+            return bits.read(64);
+        }
+
+        private int readXor(int component) {
+            if (bits.read(1) == 0)
+                return previous[component];
+            if (bits.read(1) == 1) {
+                leading[component] = (int) bits.read(5);
+                int meaningful = (int) bits.read(5) + 1;
+                trailing[component] = 32 - leading[component] - meaningful;
+            }
+            int meaningful = 32 - leading[component] - trailing[component];
+            int xor = (int) bits.read(meaningful) << trailing[component];
+            previous[component] ^= xor;
+            return previous[component];
+        }
+
+        private static long signed(long value, int bits) {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+    }
+
+    /* Most significant bit first, into a growing byte array */
+    private static final class BitWriter {
+        byte[] buf = new byte[256];
+        /* bytes completed so far, and bits used of the next one */
+        private int bytes;
+        private int used;
+
+        void write(long value, int n) {
+            while (n > 0) {
+                if (bytes == buf.length)
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                int free = 8 - used;
+                int take = Math.min(free, n);
+                int chunk = (int) ((value >>> (n - take)) & ((1 << take) - 1));
+                buf[bytes] |= (byte) (chunk << (free - take));
+                used += take;
+                n -= take;
+                if (used == 8) {
+                    bytes++;
+                    used = 0;
+                }
+            }
+        }
+
+        int length() {
+            return used == 0 ? bytes : bytes + 1;
+        }
+
+        void clear() {
+            Arrays.fill(buf, 0, length(), (byte) 0);
+            bytes = 0;
+            used = 0;
+        }
+    }
+
+    private static final class BitReader {
+        private byte[] buf;
+        private int length;
+        private int bytes;
+        private int used;
+
+        void reset(byte[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+            this.bytes = 0;
+            this.used = 0;
+        }
+
+        long read(int n) {
+            long value = 0;
+            while (n > 0) {
+                if (bytes >= length)
+                    throw new IllegalStateException("Block ends in the middle of a point");
+                int free = 8 - used;
+                int take = Math.min(free, n);
+                int chunk = (buf[bytes] >>> (free - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                used += take;
+                n -= take;
+                if (used == 8) {
+                    bytes++;
+                    used = 0;
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package gateway;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Encodes a batch of samples as the JSON array of SensorData the existing collectors understand. This is the only
+ * place samples are turned into strings.
+ *
+ * Single-tag collectors know nothing about devices, so the device address is added as a "device" property only when
+ * includeDevice is set, which a gateway serving several tags needs.
+ */
+public class JsonBatchEncoder implements BatchEncoder<Sample> {
+    /* {"id":"f000aa00-0451-b001","timestamp":"yyyy-MM-dd HH:mm:ss","value":""} plus the separating comma */
+    private static final int RECORD_OVERHEAD = 73;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TimestampFormatter timestamps;
+    private final boolean includeDevice;
+
+    public JsonBatchEncoder() {
+        this(false);
+    }
+
+    public JsonBatchEncoder(boolean includeDevice) {
+        this(ZoneId.systemDefault(), includeDevice);
+    }
+
+    /** @param zone the zone timestamps are rendered in */
+    public JsonBatchEncoder(ZoneId zone, boolean includeDevice) {
+        this.timestamps = new TimestampFormatter(zone);
+        this.includeDevice = includeDevice;
+    }
+
+    @Override
+    public byte[] encode(List<Sample> batch) throws IOException {
+        List<SensorData> legacy = new ArrayList<SensorData>(batch.size());
+        for (Sample s : batch) {
+            SensorData d = SensorData.of(s, timestamps.format(s.timestampMillis()));
+            if (includeDevice)
+                d.setDevice(s.device);
+            legacy.add(d);
+        }
+        return mapper.writeValueAsBytes(legacy);
+    }
+
+    @Override
+    public int sizeOf(Sample record) {
+        int size = RECORD_OVERHEAD + (record.dimension == 3 ? 30 : 10);
+        /* ,"count":600,"window":60000,"min":"21.53125","max":"21.90625" */
+        if (record.isSummary())
+            size += 60;
+        /* ,"device":"00:00:00:00:00:00" */
+        return includeDevice ? size + 30 : size;
+    }
+}
@@ -0,0 +1,18 @@
+package gateway;
+
+/** JMX view of a {@link LatencyHistogram}; times are in microseconds. */
+public interface LatencyHistogramMBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP90Micros();
+
+    long getP99Micros();
+
+    long getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,137 @@
+package gateway;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of the stage latencies and event counters of the gateway.
+ *
+ * Stages look their metrics up once, into static fields, and record into them on every call; recording never locks.
+ * Every metric is exported as an MBean on the platform MBean server, gateway:type=Latency,name=&lt;name&gt; or
+ * gateway:type=Counter,name=&lt;name&gt;, so jconsole or any JMX client can watch a running gateway, and
+ * {@link #startReporter} writes all of them to a file every so often for the ones that cannot.
+ *
+ * Latencies are named after the stage: gatt.* for Bluetooth calls, decode, encode.* and uplink.*.
+ */
+public final class Metrics {
+    private static final Map<String, LatencyHistogram> HISTOGRAMS =
+            new ConcurrentSkipListMap<String, LatencyHistogram>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<String, Counter>();
+
+    private Metrics() {
+    }
+
+    /** The latency histogram of a stage, created and exported on first use. */
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram h = HISTOGRAMS.get(name);
+        if (h != null)
+            return h;
+        synchronized (HISTOGRAMS) {
+            h = HISTOGRAMS.get(name);
+            if (h == null) {
+                h = new LatencyHistogram();
+                HISTOGRAMS.put(name, h);
+                export("Latency", name, h);
+            }
+            return h;
+        }
+    }
+
+    /** The counter of an event, created and exported on first use. */
+    public static Counter counter(String name) {
+        Counter c = COUNTERS.get(name);
+        if (c != null)
+            return c;
+        synchronized (COUNTERS) {
+            c = COUNTERS.get(name);
+            if (c == null) {
+                c = new Counter();
+                COUNTERS.put(name, c);
+                export("Counter", name, c);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Appends every metric, one per line: counters as "name value", latencies as "name count=.. mean=.. p50=.. p90=..
+     * p99=.. max=.." in microseconds.
+     */
+    public static void appendTo(StringBuilder out) {
+        for (Map.Entry<String, Counter> e : COUNTERS.entrySet())
+            out.append(e.getKey()).append(' ').append(e.getValue().getValue()).append('\n');
+        for (Map.Entry<String, LatencyHistogram> e : HISTOGRAMS.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            out.append(e.getKey()).append(" count=").append(h.getCount())
+                    .append(" mean=").append(Math.round(h.getMeanMicros()))
+                    .append(" p50=").append(h.getP50Micros())
+                    .append(" p90=").append(h.getP90Micros())
+                    .append(" p99=").append(h.getP99Micros())
+                    .append(" max=").append(h.getMaxMicros()).append('\n');
+        }
+    }
+
+    /**
+     * Rewrites file with every metric, headed by the time, every periodMillis until the returned handle is closed,
+     * which writes it a last time. The file is replaced atomically, so readers never see half of it.
+     */
+    public static Closeable startReporter(final File file, long periodMillis) {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        final Runnable report = () -> {
+            StringBuilder out = new StringBuilder(4096);
+            out.append("# ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date())).append('\n');
+            appendTo(out);
+            File tmp = new File(file.getPath() + ".tmp");
+            try (Writer w = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8)) {
+                w.write(out.toString());
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + tmp + ": " + e);
+                return;
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Could not replace " + file + ": " + e);
+            }
+        };
+        scheduler.scheduleAtFixedRate(report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return () -> {
+            scheduler.shutdownNow();
+            report.run();
+        };
+    }
+
+    private static void export(String type, String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName id = new ObjectName("gateway:type=" + type + ",name=" + name);
+            if (!server.isRegistered(id))
+                server.registerMBean(mbean, id);
+        } catch (JMException | RuntimeException e) {
+            System.err.println("Could not export metric " + name + ": " + e);
+        }
+    }
+}
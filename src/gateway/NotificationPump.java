@@ -0,0 +1,184 @@
+package gateway;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import tinyb.BluetoothCallback;
+import tinyb.BluetoothGattCharacteristic;
+
+/**
+ * Delivers characteristic value changes to Java listeners instead of having the sampling loop issue a blocking
+ * readValue() per characteristic per cycle.
+ *
+ * Subscribing calls startNotify() on the characteristic. From then on the tag pushes every new value and BlueZ keeps
+ * it in the characteristic's cached Value property, so the pump only has to look at getValue(), which is answered
+ * locally without touching the radio. Each subscription is a {@link BluetoothCallback} bound to its characteristic;
+ * one pump thread runs them all and calls the listener whenever the cached value changes. Characteristics that
+ * refuse notifications fall back to an occasional readValueAsync(), so a slow read never holds up the pump.
+ * One pump can serve the characteristics of many devices.
+ *
+ * Because only the cached value is visible, two consecutive notifications carrying identical bytes are reported
+ * once.
+ */
+public class NotificationPump implements Closeable {
+    public static final long DEFAULT_INTERVAL_MILLIS = 10;
+    public static final long DEFAULT_FALLBACK_READ_MILLIS = 500;
+
+    private static final LatencyHistogram GET_VALUE = Metrics.histogram("gatt.getValue");
+    private static final LatencyHistogram READ = Metrics.histogram("gatt.read");
+    private static final Counter READ_ERRORS = Metrics.counter("errors.gatt.read");
+    private static final Counter NOTIFICATIONS = Metrics.counter("notifications");
+
+    public interface Listener {
+        void onValue(BluetoothGattCharacteristic characteristic, byte[] value);
+    }
+
+    private final long intervalNanos;
+    private final long fallbackReadNanos;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+    private volatile boolean running;
+    private Thread thread;
+
+    public NotificationPump() {
+        this(DEFAULT_INTERVAL_MILLIS, DEFAULT_FALLBACK_READ_MILLIS);
+    }
+
+    public NotificationPump(long intervalMillis, long fallbackReadMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.fallbackReadNanos = TimeUnit.MILLISECONDS.toNanos(fallbackReadMillis);
+    }
+
+    /**
+     * Turns on notifications for the characteristic and routes its value changes to listener.
+     * @return true if the device accepted notifications, false if the characteristic will be polled instead
+     */
+    public boolean subscribe(BluetoothGattCharacteristic characteristic, Listener listener) {
+        return subscribe(characteristic, listener, true);
+    }
+
+    /**
+     * Like {@link #subscribe(BluetoothGattCharacteristic, Listener)}, but with canNotify false the characteristic is
+     * polled right away, without first asking the device for notifications it is known to refuse.
+     */
+    public boolean subscribe(BluetoothGattCharacteristic characteristic, Listener listener, boolean canNotify) {
+        boolean notifying = canNotify && characteristic.startNotify();
+        subscriptions.add(new Subscription(characteristic, listener, notifying, fallbackReadNanos));
+        return notifying;
+    }
+
+    /** Turns off notifications for the characteristic and drops its listeners. */
+    public void unsubscribe(BluetoothGattCharacteristic characteristic) {
+        for (Subscription s : subscriptions) {
+            if (s.isFor(characteristic) && subscriptions.remove(s))
+                s.cancel();
+        }
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this::pump, "notification-pump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops the pump thread and turns notifications off again. */
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        for (Subscription s : subscriptions)
+            s.cancel();
+        subscriptions.clear();
+    }
+
+    private void pump() {
+        while (running) {
+            for (Subscription s : subscriptions) {
+                try {
+                    s.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Notification dispatch failed: " + e);
+                }
+            }
+            LockSupport.parkNanos(intervalNanos);
+        }
+    }
+
+    private static class Subscription extends BluetoothCallback {
+        private final Listener listener;
+        private final boolean notifying;
+        private final long fallbackReadNanos;
+        private long nextReadNanos;
+        private byte[] last;
+        private CompletableFuture<byte[]> read;
+        private long readStartNanos;
+
+        Subscription(BluetoothGattCharacteristic characteristic, Listener listener, boolean notifying,
+                long fallbackReadNanos) {
+            this.bObj = characteristic;
+            this.listener = listener;
+            this.notifying = notifying;
+            this.fallbackReadNanos = fallbackReadNanos;
+            this.nextReadNanos = System.nanoTime();
+        }
+
+        public void run() {
+            BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) bObj;
+            byte[] value;
+            if (notifying) {
+                long start = System.nanoTime();
+                value = characteristic.getValue();
+                GET_VALUE.recordSince(start);
+            } else if (read != null) {
+                if (!read.isDone())
+                    return;
+                READ.recordSince(readStartNanos);
+                try {
+                    value = read.join();
+                } catch (CompletionException e) {
+                    READ_ERRORS.increment();
+                    System.err.println("Reading " + characteristic.getUuid() + " failed: " + e.getCause());
+                    value = null;
+                }
+                read = null;
+            } else {
+                long now = System.nanoTime();
+                if (now - nextReadNanos < 0)
+                    return;
+                nextReadNanos = now + fallbackReadNanos;
+                readStartNanos = now;
+                read = characteristic.readValueAsync();
+                return;
+            }
+            if (value == null || value.length == 0 || Arrays.equals(value, last))
+                return;
+            last = value;
+            NOTIFICATIONS.increment();
+            listener.onValue(characteristic, value);
+        }
+
+        boolean isFor(BluetoothGattCharacteristic characteristic) {
+            return bObj == characteristic;
+        }
+
+        void cancel() {
+            if (notifying)
+                ((BluetoothGattCharacteristic) bObj).stopNotify();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package gateway;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Read-only HTTP endpoint for dashboards and diagnostics on the LAN, answered from {@link RecentSamples} so it never
+ * touches the radio, the uplink or the acquisition threads:
+ *
+ * <pre>
+ * GET /devices                                  tag addresses with recent readings
+ * GET /latest[?device=..]                       latest reading of every sensor
+ * GET /recent?seconds=N[&amp;device=..][&amp;sensor=..]  readings of the last N seconds
+ * </pre>
+ *
+ * sensor is a legacy id such as f000aa20-0451-b002 or a numeric {@link SensorIds} id. Readings are JSON objects with
+ * device, id (the legacy id), time (milliseconds since the epoch) and value, a number or an array of three. Requests
+ * are served by two threads of the server's own, so a slow client delays only other queries.
+ */
+public class QueryServer implements Closeable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final RecentSamples recent;
+    private final AcquisitionClock clock;
+    private final JsonFactory json = new JsonFactory();
+
+    /** @param clock the clock the readings were stamped with, for "the last N seconds" */
+    public QueryServer(InetSocketAddress address, RecentSamples recent, AcquisitionClock clock) throws IOException {
+        this.recent = recent;
+        this.clock = clock;
+        this.server = HttpServer.create(address, 16);
+        this.executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "query-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/devices", exchange -> serve(exchange, this::devices));
+        server.createContext("/latest", exchange -> serve(exchange, this::latest));
+        server.createContext("/recent", exchange -> serve(exchange, this::recent));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    private interface Query {
+        void answer(Map<String, String> params, JsonGenerator out) throws IOException;
+    }
+
+    private void devices(Map<String, String> params, JsonGenerator out) throws IOException {
+        out.writeStartArray();
+        for (String device : recent.getDevices())
+            out.writeString(device);
+        out.writeEndArray();
+    }
+
+    private void latest(Map<String, String> params, JsonGenerator out) throws IOException {
+        out.writeStartArray();
+        recent.latest(params.get("device"), (device, sensorId, t, values, dimension) -> write(out, device, sensorId,
+                t, values, dimension));
+        out.writeEndArray();
+    }
+
+    private void recent(Map<String, String> params, JsonGenerator out) throws IOException {
+        String seconds = params.get("seconds");
+        if (seconds == null)
+            throw new IllegalArgumentException("seconds is required");
+        long since = clock.now() - TimeUnit.SECONDS.toNanos(Long.parseLong(seconds));
+        String sensor = params.get("sensor");
+        int sensorId = sensor == null ? 0 : sensor.indexOf('-') >= 0 ? SensorIds.fromLegacyId(sensor)
+                : Integer.parseInt(sensor);
+        if (sensorId != 0)
+            SensorIds.dimension(sensorId);
+        out.writeStartArray();
+        recent.since(params.get("device"), sensorId, since, (device, id, t, values, dimension) -> write(out, device,
+                id, t, values, dimension));
+        out.writeEndArray();
+    }
+
+    private static void write(JsonGenerator out, String device, int sensorId, long timestampNanos, float[] values,
+            int dimension) {
+        try {
+            out.writeStartObject();
+            out.writeStringField("device", device);
+            out.writeStringField("id", SensorIds.legacyId(sensorId));
+            out.writeNumberField("time", TimeUnit.NANOSECONDS.toMillis(timestampNanos));
+            out.writeFieldName("value");
+            if (dimension == 1) {
+                out.writeNumber(values[0]);
+            } else {
+                out.writeStartArray();
+                for (int i = 0; i < dimension; i++)
+                    out.writeNumber(values[i]);
+                out.writeEndArray();
+            }
+            out.writeEndObject();
+        } catch (IOException e) {
+            /* the generator writes to memory */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void serve(HttpExchange exchange, Query query) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain", "Only GET is supported\n".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+            try (JsonGenerator out = json.createGenerator(body)) {
+                query.answer(params(exchange.getRequestURI().getRawQuery()), out);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            respond(exchange, 200, "application/json", body.toByteArray());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> params(String query) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null)
+            return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return params;
+    }
+}
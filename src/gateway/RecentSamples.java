@@ -0,0 +1,165 @@
+package gateway;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * The last readings of every sensor of every tag, for local queries, in a fixed-capacity ring per device and sensor
+ * id.
+ *
+ * Rings are lock-free: the session of a tag is the only writer of its rings, and readers copy out what they need
+ * without ever holding the writer up. Each slot is four longs (sequence, timestamp and the value bits of up to three
+ * components) written with ordered stores. A slot is marked as being written first and stamped with its sequence
+ * number last, so a reader that finds the same sequence before and after copying a slot knows the copy is whole, and
+ * skips the slot otherwise. Recording copies primitives into existing arrays and does not allocate once a sensor has
+ * its ring.
+ */
+public class RecentSamples implements Consumer<Sample> {
+    /** Receives the readings of a query; values is reused and holds dimension components. */
+    public interface Visitor {
+        void onPoint(String device, int sensorId, long timestampNanos, float[] values, int dimension);
+    }
+
+    private static final int STRIDE = 4;
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Ring[]> rings = new ConcurrentHashMap<String, Ring[]>();
+
+    /** @param capacity readings kept per device and sensor */
+    public RecentSamples(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Records a reading; the sample stays with the caller. Summaries are ignored. */
+    @Override
+    public void accept(Sample s) {
+        if (s.isSummary() || s.sensorId <= 0 || s.sensorId >= SensorIds.COUNT)
+            return;
+        String key = key(s.device);
+        Ring[] bySensor = rings.get(key);
+        if (bySensor == null)
+            bySensor = rings.computeIfAbsent(key, d -> new Ring[SensorIds.COUNT]);
+        Ring ring = bySensor[s.sensorId];
+        if (ring == null) {
+            synchronized (bySensor) {
+                ring = bySensor[s.sensorId];
+                if (ring == null)
+                    ring = bySensor[s.sensorId] = new Ring(capacity);
+            }
+        }
+        ring.add(s);
+    }
+
+    /** Addresses of the tags with recent readings, "" for readings without one. */
+    public List<String> getDevices() {
+        return new ArrayList<String>(rings.keySet());
+    }
+
+    /**
+     * Hands the latest reading of each sensor of device, or of every device if device is null, to visitor.
+     * @return the number of readings handed out
+     */
+    public int latest(String device, Visitor visitor) {
+        return visit(device, 0, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Hands the readings of sensorId, or of every sensor if sensorId is 0, acquired at or after sinceNanos to
+     * visitor, oldest first per sensor; device is null for every device.
+     * @return the number of readings handed out
+     */
+    public int since(String device, int sensorId, long sinceNanos, Visitor visitor) {
+        return visit(device, sensorId, sinceNanos, visitor);
+    }
+
+    /* sinceNanos Long.MAX_VALUE asks for the latest reading only */
+    private int visit(String device, int sensorId, long sinceNanos, Visitor visitor) {
+        int n = 0;
+        float[] values = new float[3];
+        for (String d : device == null ? getDevices() : Collections.singletonList(key(device))) {
+            Ring[] bySensor = rings.get(d);
+            if (bySensor == null)
+                continue;
+            for (int id = 1; id < SensorIds.COUNT; id++) {
+                Ring ring = bySensor[id];
+                if (ring != null && (sensorId == 0 || sensorId == id))
+                    n += ring.read(d, id, sinceNanos, values, visitor);
+            }
+        }
+        return n;
+    }
+
+    private static String key(String device) {
+        return device == null ? "" : device;
+    }
+
+    private static final class Ring {
+        private final int capacity;
+        /* sequence, timestamp, components 0 and 1, component 2, per slot */
+        private final AtomicLongArray slots;
+        /* sequence number of the next reading */
+        private final AtomicLong next = new AtomicLong();
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicLongArray(capacity * STRIDE);
+            for (int i = 0; i < capacity; i++)
+                slots.set(i * STRIDE, -1);
+        }
+
+        /* Only ever called by the one session writing this ring */
+        void add(Sample s) {
+            long seq = next.get();
+            int at = (int) (seq % capacity) * STRIDE;
+            slots.lazySet(at, -1);
+            slots.lazySet(at + 1, s.timestampNanos);
+            slots.lazySet(at + 2, pack(s.values[0], s.dimension > 1 ? s.values[1] : 0));
+            slots.lazySet(at + 3, s.dimension > 2 ? Float.floatToRawIntBits(s.values[2]) : 0);
+            slots.lazySet(at, seq);
+            next.lazySet(seq + 1);
+        }
+
+        int read(String device, int sensorId, long sinceNanos, float[] values, Visitor visitor) {
+            long end = next.get();
+            long start = sinceNanos == Long.MAX_VALUE ? end - 1 : Math.max(0, end - capacity);
+            int dim = SensorIds.dimension(sensorId);
+            int n = 0;
+            for (long seq = start; seq < end; seq++) {
+                if (seq < 0)
+                    continue;
+                int at = (int) (seq % capacity) * STRIDE;
+                if (slots.get(at) != seq)
+                    continue;
+                long t = slots.get(at + 1);
+                long xy = slots.get(at + 2);
+                long z = slots.get(at + 3);
+                /* overwritten while we were copying */
+                if (slots.get(at) != seq)
+                    continue;
+                if (sinceNanos != Long.MAX_VALUE && t < sinceNanos)
+                    continue;
+                values[0] = Float.intBitsToFloat((int) (xy >>> 32));
+                values[1] = Float.intBitsToFloat((int) xy);
+                values[2] = Float.intBitsToFloat((int) z);
+                visitor.onPoint(device, sensorId, t, values, dim);
+                n++;
+            }
+            return n;
+        }
+
+        private static long pack(float x, float y) {
+            return (long) Float.floatToRawIntBits(x) << 32 | Float.floatToRawIntBits(y) & 0xFFFFFFFFL;
+        }
+    }
+}
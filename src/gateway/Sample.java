@@ -0,0 +1,96 @@
+package gateway;
+
+/**
+ * One typed reading on its way through the gateway: the address of the tag it came from, a numeric sensor id from
+ * {@link SensorIds}, the acquisition time in nanoseconds since the epoch, and one value for scalar sensors or three
+ * for vector sensors.
+ *
+ * A sample can also be a summary of a window of scalar readings, made by {@link WindowAggregator}: then count is the
+ * number of readings, timestampNanos the start of the window, windowNanos its length, the value their mean and min
+ * and max their extremes. count is 0 for a single reading.
+ *
+ * Samples are mutable so they can be recycled through a {@link SamplePool}; whoever takes one from the pool owns it
+ * until it is released. Stages between acquisition and the sinks work on these primitives; the legacy string form
+ * is produced only by {@link SensorData#of}.
+ */
+public final class Sample {
+    public String device;
+    public int sensorId;
+    public long timestampNanos;
+    public int dimension;
+    public final float[] values = new float[3];
+    public int count;
+    public long windowNanos;
+    public float min;
+    public float max;
+
+    public Sample set(int sensorId, long timestampNanos, float value) {
+        this.sensorId = sensorId;
+        this.timestampNanos = timestampNanos;
+        this.dimension = 1;
+        this.count = 0;
+        values[0] = value;
+        return this;
+    }
+
+    public Sample set(int sensorId, long timestampNanos, float x, float y, float z) {
+        this.sensorId = sensorId;
+        this.timestampNanos = timestampNanos;
+        this.dimension = 3;
+        this.count = 0;
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        return this;
+    }
+
+    /** Makes this the summary of count readings of a scalar sensor over the window starting at startNanos. */
+    public Sample summary(int sensorId, long startNanos, long windowNanos, int count, float min, float max,
+            float mean) {
+        this.sensorId = sensorId;
+        this.timestampNanos = startNanos;
+        this.dimension = 1;
+        this.count = count;
+        this.windowNanos = windowNanos;
+        this.min = min;
+        this.max = max;
+        values[0] = mean;
+        return this;
+    }
+
+    /** True for a window summary, false for a single reading. */
+    public boolean isSummary() {
+        return count > 0;
+    }
+
+    public Sample copyFrom(Sample other) {
+        device = other.device;
+        sensorId = other.sensorId;
+        timestampNanos = other.timestampNanos;
+        dimension = other.dimension;
+        System.arraycopy(other.values, 0, values, 0, 3);
+        count = other.count;
+        windowNanos = other.windowNanos;
+        min = other.min;
+        max = other.max;
+        return this;
+    }
+
+    /** The value of a scalar sample, or the first component of a vector. */
+    public float value() {
+        return values[0];
+    }
+
+    public long timestampMillis() {
+        return timestampNanos / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return "Sample [device=" + device + ", sensorId=" + sensorId + ", timestampNanos=" + timestampNanos + ", value="
+                + (dimension == 3 ? values[0] + ":" + values[1] + ":" + values[2] : String.valueOf(values[0]))
+                + (count > 0 ? ", count=" + count + ", windowNanos=" + windowNanos + ", min=" + min + ", max=" + max
+                        : "")
+                + "]";
+    }
+}
@@ -0,0 +1,296 @@
+package gateway;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Compressed local archive of samples, a column per sensor channel instead of a text line per reading.
+ *
+ * Every (device, sensor id) channel fills its own {@link GorillaBlock} of blockPoints points; a full block is
+ * appended to the archive file with a small header, and so is a partial one once its first point is maxBlockMillis
+ * old, which bounds what a power cut can lose. Closing a file appends a block index (channel, time range, point count
+ * and offset of every block) and a footer pointing at it, so {@link SampleArchiveReader} can pick the blocks of one
+ * channel and time range without reading the rest. A file without an index, cut short by a crash, is still read
+ * block by block.
+ *
+ * Like {@link FileSink}, samples are offered to a bounded queue and encoded and written by a thread of its own, and
+ * offering never blocks. The archive is &lt;name&gt;-yyyyMMdd-HHmmss.tsa and a new file is started once the current one
+ * is older than maxAgeMillis. Summaries are not archived.
+ *
+ * File layout, big-endian: the magic "GTS1", then blocks of 'B', device (modified UTF-8, empty if unknown), sensor
+ * id, dimension (one byte each), point count (unsigned short), first and last timestamp in milliseconds (longs), the
+ * length of the encoded points (int) and the points; then 'I', the number of blocks (int) and per block its device,
+ * sensor id, first and last timestamp, point count and file offset (long); then the offset of the index (long) and
+ * the magic "GTSI".
+ */
+public class SampleArchive implements Closeable {
+    static final int MAGIC = 0x47545331;
+    static final int INDEX_MAGIC = 0x47545349;
+    static final int BLOCK = 'B';
+    static final int INDEX = 'I';
+    static final String SUFFIX = ".tsa";
+
+    public static final int DEFAULT_BLOCK_POINTS = 256;
+
+    private final File dir;
+    private final String name;
+    private final int blockPoints;
+    private final long maxBlockMillis;
+    private final long maxAgeMillis;
+    private final Consumer<? super Sample> release;
+    private final ArrayBlockingQueue<Sample> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Map<String, Channel[]> channels = new HashMap<String, Channel[]>();
+    private final List<Channel> open = new ArrayList<Channel>();
+    private final List<BlockInfo> index = new ArrayList<BlockInfo>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private DataOutputStream out;
+    private long offset;
+    private long openedMillis;
+
+    /**
+     * @param blockPoints points per block
+     * @param maxBlockMillis how long a partial block may stay in memory
+     * @param release called with each sample once it has been encoded or dropped, e.g. to return it to a pool
+     */
+    public SampleArchive(File dir, String name, int blockPoints, long maxBlockMillis, long maxAgeMillis,
+            int queueCapacity, Consumer<? super Sample> release) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create archive directory " + dir);
+        this.dir = dir;
+        this.name = name;
+        this.blockPoints = blockPoints;
+        this.maxBlockMillis = maxBlockMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.release = release;
+        this.queue = new ArrayBlockingQueue<Sample>(queueCapacity);
+        open();
+        writer = new Thread(this::write, "archive-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a sample for archiving without blocking.
+     * @return false if the queue was full and the sample was dropped
+     */
+    public boolean offer(Sample sample) {
+        if (queue.offer(sample))
+            return true;
+        dropped.incrementAndGet();
+        release.accept(sample);
+        return false;
+    }
+
+    /** Number of samples dropped because the writer could not keep up. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Writes everything queued and every partial block, then the index, and closes the file. */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Sample s = running ? queue.poll(1, TimeUnit.SECONDS) : queue.poll();
+                if (s != null)
+                    append(s);
+                long now = System.currentTimeMillis();
+                if (s == null || queue.isEmpty()) {
+                    for (Channel c : open) {
+                        if (c.block.size() > 0 && now - c.startedMillis >= maxBlockMillis)
+                            writeBlock(c);
+                    }
+                    out.flush();
+                }
+                if (now - openedMillis >= maxAgeMillis)
+                    rotate();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                System.err.println("Archive " + name + " write failed: " + e);
+            }
+        }
+        try {
+            finish();
+        } catch (IOException e) {
+            System.err.println("Archive " + name + " close failed: " + e);
+        }
+    }
+
+    private void append(Sample s) throws IOException {
+        try {
+            if (s.isSummary() || s.sensorId <= 0 || s.sensorId >= SensorIds.COUNT)
+                return;
+            String device = s.device == null ? "" : s.device;
+            Channel[] bySensor = channels.get(device);
+            if (bySensor == null)
+                channels.put(device, bySensor = new Channel[SensorIds.COUNT]);
+            Channel c = bySensor[s.sensorId];
+            if (c == null) {
+                c = bySensor[s.sensorId] = new Channel(device, s.sensorId,
+                        new GorillaBlock(SensorIds.dimension(s.sensorId), blockPoints));
+                open.add(c);
+            }
+            if (c.block.size() == 0)
+                c.startedMillis = System.currentTimeMillis();
+            c.block.add(s.timestampMillis(), s.values);
+            if (c.block.isFull())
+                writeBlock(c);
+        } finally {
+            release.accept(s);
+        }
+    }
+
+    private void writeBlock(Channel c) throws IOException {
+        GorillaBlock block = c.block;
+        index.add(new BlockInfo(c.device, c.sensorId, block.getFirstMillis(), block.getLastMillis(), block.size(),
+                offset));
+        out.writeByte(BLOCK);
+        out.writeUTF(c.device);
+        out.writeByte(c.sensorId);
+        out.writeByte(block.getDimension());
+        out.writeShort(block.size());
+        out.writeLong(block.getFirstMillis());
+        out.writeLong(block.getLastMillis());
+        out.writeInt(block.length());
+        out.write(block.bytes(), 0, block.length());
+        offset = out.size();
+        block.reset();
+    }
+
+    private void open() throws IOException {
+        String stamp = name + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = new File(dir, stamp + SUFFIX);
+        for (int i = 1; file.exists(); i++)
+            file = new File(dir, stamp + "-" + i + SUFFIX);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        offset = out.size();
+        openedMillis = System.currentTimeMillis();
+    }
+
+    private void rotate() throws IOException {
+        try {
+            finish();
+        } finally {
+            /* finish() closes the file even when it fails, and later writes need one to go to */
+            open();
+        }
+    }
+
+    /* Writes the partial blocks and the index, and closes the file */
+    private void finish() throws IOException {
+        try {
+            for (Channel c : open) {
+                if (c.block.size() > 0)
+                    writeBlock(c);
+            }
+            long indexOffset = offset;
+            out.writeByte(INDEX);
+            out.writeInt(index.size());
+            for (BlockInfo b : index) {
+                out.writeUTF(b.getDevice());
+                out.writeByte(b.getSensorId());
+                out.writeLong(b.getFirstMillis());
+                out.writeLong(b.getLastMillis());
+                out.writeShort(b.getCount());
+                out.writeLong(b.getOffset());
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(INDEX_MAGIC);
+        } finally {
+            index.clear();
+            out.close();
+        }
+    }
+
+    private static final class Channel {
+        final String device;
+        final int sensorId;
+        final GorillaBlock block;
+        /* when the first point of the current block arrived */
+        long startedMillis;
+
+        Channel(String device, int sensorId, GorillaBlock block) {
+            this.device = device;
+            this.sensorId = sensorId;
+            this.block = block;
+        }
+    }
+
+    /** Where one block of a channel is and what it covers. */
+    public static final class BlockInfo {
+        private final String device;
+        private final int sensorId;
+        private final long firstMillis;
+        private final long lastMillis;
+        private final int count;
+        private final long offset;
+
+        BlockInfo(String device, int sensorId, long firstMillis, long lastMillis, int count, long offset) {
+            this.device = device;
+            this.sensorId = sensorId;
+            this.firstMillis = firstMillis;
+            this.lastMillis = lastMillis;
+            this.count = count;
+            this.offset = offset;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        public int getSensorId() {
+            return sensorId;
+        }
+
+        public long getFirstMillis() {
+            return firstMillis;
+        }
+
+        public long getLastMillis() {
+            return lastMillis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String toString() {
+            return "BlockInfo [device=" + device + ", sensorId=" + sensorId + ", firstMillis=" + firstMillis
+                    + ", lastMillis=" + lastMillis + ", count=" + count + ", offset=" + offset + "]";
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package gateway;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a {@link SampleArchive} file one block at a time, so memory use does not grow with the file.
+ *
+ * {@link #read(Visitor)} streams every point of the file in the order the blocks were written, which is time order
+ * within each channel. {@link #read(String, int, long, long, Visitor)} uses the block index to read only the blocks
+ * of one channel that overlap a time range. A file whose writer did not close it has no index; it is read up to the
+ * last complete block, and its index is rebuilt by skipping from block header to block header.
+ */
+public class SampleArchiveReader implements Closeable {
+    /** Receives points; values is reused, and only its first dimension entries are meaningful. */
+    public interface Visitor {
+        void onPoint(String device, int sensorId, long timestampMillis, float[] values, int dimension);
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final GorillaBlock.Cursor cursor = new GorillaBlock.Cursor();
+    private byte[] points = new byte[1024];
+
+    public SampleArchiveReader(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        if (raf.length() < 4 || raf.readInt() != SampleArchive.MAGIC) {
+            raf.close();
+            throw new IOException(file + " is not a sample archive");
+        }
+    }
+
+    /** The blocks of the file, from its index or, if it has none, by walking the block headers. */
+    public List<SampleArchive.BlockInfo> index() throws IOException {
+        List<SampleArchive.BlockInfo> blocks = new ArrayList<SampleArchive.BlockInfo>();
+        long length = raf.length();
+        if (length >= 16) {
+            raf.seek(length - 12);
+            long indexOffset = raf.readLong();
+            if (raf.readInt() == SampleArchive.INDEX_MAGIC) {
+                try (DataInputStream in = open(indexOffset)) {
+                    if (in.readUnsignedByte() != SampleArchive.INDEX)
+                        throw new IOException(file + " has a damaged index");
+                    int n = in.readInt();
+                    for (int i = 0; i < n; i++) {
+                        String device = in.readUTF();
+                        int sensorId = in.readUnsignedByte();
+                        long first = in.readLong();
+                        long last = in.readLong();
+                        int count = in.readUnsignedShort();
+                        blocks.add(new SampleArchive.BlockInfo(device, sensorId, first, last, count, in.readLong()));
+                    }
+                }
+                return blocks;
+            }
+        }
+        long offset = 4;
+        try (DataInputStream in = open(offset)) {
+            while (true) {
+                if (in.readUnsignedByte() != SampleArchive.BLOCK)
+                    break;
+                String device = in.readUTF();
+                int sensorId = in.readUnsignedByte();
+                in.readUnsignedByte();
+                int count = in.readUnsignedShort();
+                long first = in.readLong();
+                long last = in.readLong();
+                int bytes = in.readInt();
+                long next = offset + headerLength(device) + bytes;
+                if (next > length)
+                    break;
+                in.skipBytes(bytes);
+                blocks.add(new SampleArchive.BlockInfo(device, sensorId, first, last, count, offset));
+                offset = next;
+            }
+        } catch (EOFException e) {
+            /* cut short while a block was being written */
+        }
+        return blocks;
+    }
+
+    /** Streams every point of the file. */
+    public void read(Visitor visitor) throws IOException {
+        try (DataInputStream in = open(4)) {
+            while (readBlock(in, null, 0, Long.MIN_VALUE, Long.MAX_VALUE, visitor)) {
+            }
+        } catch (EOFException e) {
+            /* cut short while a block was being written */
+        }
+    }
+
+    /** Streams the points of one channel from fromMillis to toMillis inclusive; device is "" if unknown. */
+    public void read(String device, int sensorId, long fromMillis, long toMillis, Visitor visitor)
+            throws IOException {
+        for (SampleArchive.BlockInfo b : index()) {
+            if (b.getSensorId() != sensorId || !b.getDevice().equals(device) || b.getLastMillis() < fromMillis
+                    || b.getFirstMillis() > toMillis)
+                continue;
+            try (DataInputStream in = open(b.getOffset())) {
+                readBlock(in, device, sensorId, fromMillis, toMillis, visitor);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /* Reads the block at the start of in; false at the index or the end of the file */
+    private boolean readBlock(DataInputStream in, String device, int sensorId, long fromMillis, long toMillis,
+            Visitor visitor) throws IOException {
+        int marker = in.read();
+        if (marker != SampleArchive.BLOCK)
+            return false;
+        String blockDevice = in.readUTF();
+        int blockSensor = in.readUnsignedByte();
+        int dimension = in.readUnsignedByte();
+        int count = in.readUnsignedShort();
+        long first = in.readLong();
+        in.readLong();
+        int length = in.readInt();
+        if (points.length < length)
+            points = new byte[Math.max(length, points.length * 2)];
+        in.readFully(points, 0, length);
+        if (device != null && (blockSensor != sensorId || !blockDevice.equals(device)))
+            return true;
+        cursor.reset(points, length, dimension, count, first);
+        while (cursor.next()) {
+            long t = cursor.timestampMillis();
+            if (t >= fromMillis && t <= toMillis)
+                visitor.onPoint(blockDevice, blockSensor, t, cursor.values(), dimension);
+        }
+        return true;
+    }
+
+    private DataInputStream open(long offset) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    /* Bytes of a block header with this device */
+    private static int headerLength(String device) {
+        int utf = 0;
+        for (int i = 0; i < device.length(); i++) {
+            char c = device.charAt(i);
+            utf += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        /* marker, UTF length, device, sensor id, dimension, count, first, last, length */
+        return 1 + 2 + utf + 1 + 1 + 2 + 8 + 8 + 4;
+    }
+}
@@ -0,0 +1,28 @@
+package gateway;
+
+/**
+ * Renders a sample as one greppable text line: timestamp with milliseconds, legacy sensor id and value, e.g.
+ * "2016-10-18 14:03:07.250 f000aa80-0451-b001 1.25:-0.5:0.0".
+ */
+public class SampleLineRenderer implements FileSink.Renderer<Sample> {
+    private final TimestampFormatter timestamps;
+
+    public SampleLineRenderer(TimestampFormatter timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    @Override
+    public void render(Sample s, StringBuilder out) {
+        long millis = s.timestampMillis();
+        int ms = (int) Math.floorMod(millis, 1000L);
+        out.append(timestamps.format(millis)).append('.');
+        if (ms < 100)
+            out.append('0');
+        if (ms < 10)
+            out.append('0');
+        out.append(ms).append(' ').append(SensorIds.legacyId(s.sensorId)).append(' ').append(s.values[0]);
+        for (int i = 1; i < s.dimension; i++)
+            out.append(':').append(s.values[i]);
+        out.append('\n');
+    }
+}
@@ -0,0 +1,31 @@
+package gateway;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles {@link Sample} objects between acquisition and the sinks. Acquiring from an empty pool allocates a new
+ * sample, and releasing into a full pool drops it, so the pool bounds the garbage instead of the number of samples
+ * in flight.
+ */
+public class SamplePool {
+    private final ArrayBlockingQueue<Sample> free;
+
+    public SamplePool(int capacity) {
+        free = new ArrayBlockingQueue<Sample>(capacity);
+    }
+
+    public Sample acquire() {
+        Sample s = free.poll();
+        return s != null ? s : new Sample();
+    }
+
+    public void release(Sample sample) {
+        free.offer(sample);
+    }
+
+    public void releaseAll(Collection<Sample> samples) {
+        for (Sample s : samples)
+            free.offer(s);
+    }
+}
@@ -0,0 +1,147 @@
+package gateway;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+public class SensorData {
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String device;
+	private String id;
+	private String timestamp;
+	private String value;
+	/* set only on window summaries, see Sample */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer count;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Long window;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String min;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String max;
+
+	public SensorData(String id, String Timestamp, String f) {
+		this.id = id;
+		this.timestamp = Timestamp;
+		this.value = f;
+	}
+
+	/**
+	 * Converts a typed sample into the legacy form for collectors that expect it. Vector values are joined with ":".
+	 * A window summary carries its mean as the value, plus count, window length in milliseconds, min and max.
+	 */
+	public static SensorData of(Sample sample, String timestamp) {
+		float[] v = sample.values;
+		String value = sample.dimension == 3 ? v[0] + ":" + v[1] + ":" + v[2] : String.valueOf(v[0]);
+		SensorData d = new SensorData(SensorIds.legacyId(sample.sensorId), timestamp, value);
+		if (sample.isSummary()) {
+			d.count = sample.count;
+			d.window = sample.windowNanos / 1000000L;
+			d.min = String.valueOf(sample.min);
+			d.max = String.valueOf(sample.max);
+		}
+		return d;
+	}
+
+	public String getDevice() {
+		return device;
+	}
+
+
+
+	public void setDevice(String device) {
+		this.device = device;
+	}
+
+
+
+	public String getId() {
+		return id;
+	}
+
+
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+
+
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+
+
+	public void setTimestamp(String timestamp) {
+		this.timestamp = timestamp;
+	}
+
+
+
+	public String getValue() {
+		return value;
+	}
+
+
+
+	public void setValue(String value) {
+		this.value = value;
+	}
+
+
+
+	public Integer getCount() {
+		return count;
+	}
+
+
+
+	public void setCount(Integer count) {
+		this.count = count;
+	}
+
+
+
+	public Long getWindow() {
+		return window;
+	}
+
+
+
+	public void setWindow(Long window) {
+		this.window = window;
+	}
+
+
+
+	public String getMin() {
+		return min;
+	}
+
+
+
+	public void setMin(String min) {
+		this.min = min;
+	}
+
+
+
+	public String getMax() {
+		return max;
+	}
+
+
+
+	public void setMax(String max) {
+		this.max = max;
+	}
+
+	@Override
+	public String toString() {
+		return "SensorData [device=" + device + ", id=" + id + ", timestamp=" + timestamp + ", value=" + value
+				+ (count != null ? ", count=" + count + ", window=" + window + ", min=" + min + ", max=" + max : "") + "]";
+	}
+
+
+
+}
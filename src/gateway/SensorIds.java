@@ -0,0 +1,65 @@
+package gateway;
+
+/**
+ * Numeric ids of the SensorTag readings, used on the binary wire format instead of the legacy string ids such as
+ * "f000aa00-0451-b001". The numbers are part of the wire format and must never be reused for another reading.
+ */
+public final class SensorIds {
+    public static final int OBJECT_TEMPERATURE = 1;
+    public static final int AMBIENT_TEMPERATURE = 2;
+    public static final int HUMIDITY_TEMPERATURE = 3;
+    public static final int HUMIDITY = 4;
+    public static final int GYROSCOPE = 5;
+    public static final int ACCELEROMETER = 6;
+    public static final int MAGNETOMETER = 7;
+    public static final int PRESSURE_TEMPERATURE = 8;
+    public static final int PRESSURE = 9;
+    public static final int LIGHT = 10;
+
+    public static final int COUNT = 11;
+
+    private static final String[] LEGACY_IDS = {
+        null,
+        "f000aa00-0451-b001",
+        "f000aa00-0451-b002",
+        "f000aa20-0451-b001",
+        "f000aa20-0451-b002",
+        "f000aa80-0451-b001",
+        "f000aa80-0451-b002",
+        "f000aa80-0451-b003",
+        "f000aa40-0451-b001",
+        "f000aa40-0451-b002",
+        "f000aa70-0451-b001",
+    };
+
+    private static final int[] DIMENSIONS = { 0, 1, 1, 1, 1, 3, 3, 3, 1, 1, 1 };
+
+    private SensorIds() {
+    }
+
+    /** Returns the legacy string id of a reading, as used in SensorData. */
+    public static String legacyId(int sensorId) {
+        checkId(sensorId);
+        return LEGACY_IDS[sensorId];
+    }
+
+    /** Returns the numeric id for a legacy string id. */
+    public static int fromLegacyId(String legacyId) {
+        for (int i = 1; i < LEGACY_IDS.length; i++) {
+            if (LEGACY_IDS[i].equals(legacyId))
+                return i;
+        }
+        throw new IllegalArgumentException("Unknown sensor id " + legacyId);
+    }
+
+    /** Number of float components of a reading: 1 for scalars, 3 for vectors. */
+    public static int dimension(int sensorId) {
+        checkId(sensorId);
+        return DIMENSIONS[sensorId];
+    }
+
+    private static void checkId(int sensorId) {
+        if (sensorId <= 0 || sensorId >= COUNT)
+            throw new IllegalArgumentException("Unknown sensor id " + sensorId);
+    }
+}
@@ -0,0 +1,148 @@
+package gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative description of a tag model: its GATT services with their value, configuration and period
+ * characteristics, the bytes that switch each sensor on, and the layout and scaling of every field in the values.
+ * Profiles are registered with {@link SensorProfiles} and compiled there once into a {@link CompiledProfile}, which is
+ * what decodes values; nothing here is looked at per sample.
+ *
+ * A field reads one raw integer per component at fixed offsets in the value (little-endian, as GATT sends them) and
+ * scales it to raw * factor + offset. Fields of kind {@link Scale#EXPONENT_MANTISSA} hold a 4-bit exponent and a
+ * 12-bit mantissa and scale to mantissa * 2^exponent * factor + offset.
+ */
+public final class SensorProfile {
+    /** Raw field types. CompiledProfile switches on their order, so new ones go at the end. */
+    public enum Type {
+        INT8(1), UINT8(1), INT16(2), UINT16(2), INT24(3), UINT24(3), INT32(4);
+
+        final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+    }
+
+    public enum Scale {
+        LINEAR, EXPONENT_MANTISSA
+    }
+
+    /** One reading in a value: a scalar, or a vector with one offset per component. */
+    public static final class Field {
+        final int sensorId;
+        final Type type;
+        final Scale scale;
+        final double factor;
+        final double offset;
+        final int[] offsets;
+
+        /**
+         * @param offsets byte offset of each component in the value; one for a scalar, three for a vector
+         */
+        public Field(int sensorId, Type type, Scale scale, double factor, double offset, int... offsets) {
+            if (offsets.length != 1 && offsets.length != 3)
+                throw new IllegalArgumentException("A field has 1 or 3 components, not " + offsets.length);
+            if (offsets.length != SensorIds.dimension(sensorId))
+                throw new IllegalArgumentException("Sensor " + sensorId + " has " + SensorIds.dimension(sensorId)
+                        + " components, not " + offsets.length);
+            this.sensorId = sensorId;
+            this.type = type;
+            this.scale = scale;
+            this.factor = factor;
+            this.offset = offset;
+            this.offsets = offsets.clone();
+        }
+
+        /** A linearly scaled field. */
+        public Field(int sensorId, Type type, double factor, double offset, int... offsets) {
+            this(sensorId, type, Scale.LINEAR, factor, offset, offsets);
+        }
+
+        /* bytes a value needs to hold this field */
+        int extent() {
+            int end = 0;
+            for (int o : offsets)
+                end = Math.max(end, o + type.size);
+            return end;
+        }
+    }
+
+    /** One GATT service of the tag and the fields of its value characteristic. */
+    public static final class Service {
+        private final String uuid;
+        private final String value;
+        private final String config;
+        private final String period;
+        private final byte[] enable;
+        private final List<Field> fields;
+
+        /**
+         * @param config configuration characteristic, or null if the sensor is always on
+         * @param period period characteristic, or null if the rate is fixed
+         * @param enable what to write to config to switch the sensor on
+         */
+        public Service(String uuid, String value, String config, String period, byte[] enable, Field... fields) {
+            if (fields.length == 0)
+                throw new IllegalArgumentException("Service " + uuid + " has no fields");
+            this.uuid = uuid;
+            this.value = value;
+            this.config = config;
+            this.period = period;
+            this.enable = enable == null ? null : enable.clone();
+            this.fields = Collections.unmodifiableList(new ArrayList<Field>(Arrays.asList(fields)));
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getConfig() {
+            return config;
+        }
+
+        public String getPeriod() {
+            return period;
+        }
+
+        public byte[] getEnable() {
+            return enable == null ? null : enable.clone();
+        }
+
+        public List<Field> getFields() {
+            return fields;
+        }
+
+        /** Shortest value that holds every field. */
+        public int getMinLength() {
+            int n = 0;
+            for (Field f : fields)
+                n = Math.max(n, f.extent());
+            return n;
+        }
+    }
+
+    private final String name;
+    private final List<Service> services;
+
+    public SensorProfile(String name, Service... services) {
+        this.name = name;
+        this.services = Collections.unmodifiableList(new ArrayList<Service>(Arrays.asList(services)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** The services in the order the compiled profile numbers them. */
+    public List<Service> getServices() {
+        return services;
+    }
+}
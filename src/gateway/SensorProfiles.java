@@ -0,0 +1,71 @@
+package gateway;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gateway.SensorProfile.Field;
+import gateway.SensorProfile.Scale;
+import gateway.SensorProfile.Service;
+import gateway.SensorProfile.Type;
+
+/**
+ * Registry of the tag models the gateway knows, by name, each compiled once when it is registered. Supporting another
+ * model means registering its {@link SensorProfile}; the decoding loop stays the same.
+ */
+public final class SensorProfiles {
+    /**
+     * TI CC2650 SensorTag, see http://processors.wiki.ti.com/images/a/a8/BLE_SensorTag_GATT_Server.pdf. Every UUID
+     * is a short UUID such as AA00 inserted into the TI base UUID f000XXXX-0451-4000-b000-000000000000. The services
+     * are in the slot order of {@link AdaptiveRateController}.
+     */
+    public static final SensorProfile CC2650 = new SensorProfile("CC2650",
+            /* IR temperature: object and ambient, signed 16-bit in 1/128 degrees */
+            new Service(ti("aa00"), ti("aa01"), ti("aa02"), ti("aa03"), new byte[] { 0x01 },
+                    new Field(SensorIds.OBJECT_TEMPERATURE, Type.INT16, 1 / 128.0, 0, 0),
+                    new Field(SensorIds.AMBIENT_TEMPERATURE, Type.INT16, 1 / 128.0, 0, 2)),
+            /* humidity: temperature and relative humidity, unsigned 16-bit */
+            new Service(ti("aa20"), ti("aa21"), ti("aa22"), ti("aa23"), new byte[] { 0x01 },
+                    new Field(SensorIds.HUMIDITY_TEMPERATURE, Type.UINT16, 165 / 65536.0, -40, 0),
+                    new Field(SensorIds.HUMIDITY, Type.UINT16, 100 / 65536.0, 0, 2)),
+            /* movement: gyroscope, accelerometer at 2 G and magnetometer, signed 16-bit axes; 0x7f enables all */
+            new Service(ti("aa80"), ti("aa81"), ti("aa82"), ti("aa83"), new byte[] { 0x7f, 0x00 },
+                    new Field(SensorIds.GYROSCOPE, Type.INT16, 500 / 65536.0, 0, 0, 2, 4),
+                    new Field(SensorIds.ACCELEROMETER, Type.INT16, 2 / 32768.0, 0, 6, 8, 10),
+                    new Field(SensorIds.MAGNETOMETER, Type.INT16, 1, 0, 12, 14, 16)),
+            /* barometer: temperature, signed 24-bit in 1/100 degrees, and pressure, unsigned 24-bit in 1/100 hPa */
+            new Service(ti("aa40"), ti("aa41"), ti("aa42"), ti("aa44"), new byte[] { 0x01 },
+                    new Field(SensorIds.PRESSURE_TEMPERATURE, Type.INT24, 0.01, 0, 0),
+                    new Field(SensorIds.PRESSURE, Type.UINT24, 0.01, 0, 3)),
+            /* optical: lux with a 4-bit exponent and 12-bit mantissa in 1/100 */
+            new Service(ti("aa70"), ti("aa71"), ti("aa72"), ti("aa73"), new byte[] { 0x01 },
+                    new Field(SensorIds.LIGHT, Type.UINT16, Scale.EXPONENT_MANTISSA, 0.01, 0, 0)));
+
+    private static final Map<String, CompiledProfile> compiled = new ConcurrentHashMap<String, CompiledProfile>();
+
+    static {
+        register(CC2650);
+    }
+
+    private SensorProfiles() {
+    }
+
+    /** Compiles the profile and makes it available under its name, replacing any profile of that name. */
+    public static void register(SensorProfile profile) {
+        compiled.put(profile.getName(), new CompiledProfile(profile));
+    }
+
+    /**
+     * Returns a decoder for the named profile, for use by one thread.
+     * @throws IllegalArgumentException if no such profile is registered
+     */
+    public static CompiledProfile decoder(String name) {
+        CompiledProfile profile = compiled.get(name);
+        if (profile == null)
+            throw new IllegalArgumentException("Unknown sensor profile " + name);
+        return profile.copy();
+    }
+
+    private static String ti(String shortUuid) {
+        return "f000" + shortUuid + "-0451-4000-b000-000000000000";
+    }
+}
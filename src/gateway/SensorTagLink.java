@@ -0,0 +1,34 @@
+package gateway;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a {@link DeviceSession} needs from one SensorTag: connection handling and a stream of decoded readings.
+ * {@link TinybSensorTagLink} talks to a real tag through TinyB; other implementations can simulate tags for load
+ * tests.
+ */
+public interface SensorTagLink {
+    String getAddress();
+
+    boolean connect();
+
+    boolean isConnected();
+
+    void disconnect();
+
+    /**
+     * Resolves the services of a connected tag, switches its sensors on and starts the value stream.
+     * @return false if the tag does not expose the services and characteristics we need
+     */
+    boolean start() throws InterruptedException;
+
+    /**
+     * Waits up to timeout for new values and decodes the latest ones into reading, including their acquisition
+     * times. Services without a usable value keep their previous values and times.
+     * @return true if reading was updated, false if nothing arrived in time
+     */
+    boolean poll(SensorTagReading reading, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /** Stops the value stream started by {@link #start}. */
+    void stop();
+}
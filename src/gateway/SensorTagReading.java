@@ -0,0 +1,175 @@
+package gateway;
+
+import java.util.function.Consumer;
+
+/**
+ * One set of converted SensorTag values, filled sample by sample with {@link #set} from the CC2650
+ * {@link CompiledProfile}. Callers keep an instance per device and overwrite it every cycle, so decoding does not
+ * allocate.
+ *
+ * Each service carries its own acquisition time, in nanoseconds since the epoch, taken when its value was read or
+ * notified rather than once per cycle.
+ */
+public final class SensorTagReading {
+    /* address of the tag the values came from */
+    public String device;
+
+    public long temperatureNanos;
+    public long humidityNanos;
+    public long movementNanos;
+    public long pressureNanos;
+    public long opticalNanos;
+
+    /* acquisition times already handed out by forEachNewSample */
+    private long sentTemperatureNanos, sentHumidityNanos, sentMovementNanos, sentPressureNanos, sentOpticalNanos;
+
+    /* AA00 IR temperature, degrees Celsius */
+    public float objectTemperature;
+    public float ambientTemperature;
+
+    /* AA20 humidity: degrees Celsius and percent relative humidity */
+    public float humidityTemperature;
+    public float humidity;
+
+    /* AA80 movement: degrees/s, G and uT */
+    public float gyroX, gyroY, gyroZ;
+    public float accX, accY, accZ;
+    public float magX, magY, magZ;
+
+    /* AA40 barometer: degrees Celsius and hPa */
+    public float pressureTemperature;
+    public float pressure;
+
+    /* AA70 optical, lux */
+    public float light;
+
+    /** Sets the acquisition time of every service to timestampNanos. */
+    public void stampAll(long timestampNanos) {
+        temperatureNanos = timestampNanos;
+        humidityNanos = timestampNanos;
+        movementNanos = timestampNanos;
+        pressureNanos = timestampNanos;
+        opticalNanos = timestampNanos;
+    }
+
+    /**
+     * Copies the value of one CC2650 sample into the matching fields and takes its time as the acquisition time of
+     * its service. Samples of other sensors are ignored.
+     */
+    public void set(Sample s) {
+        float[] v = s.values;
+        switch (s.sensorId) {
+        case SensorIds.OBJECT_TEMPERATURE:
+            objectTemperature = v[0];
+            temperatureNanos = s.timestampNanos;
+            break;
+        case SensorIds.AMBIENT_TEMPERATURE:
+            ambientTemperature = v[0];
+            temperatureNanos = s.timestampNanos;
+            break;
+        case SensorIds.HUMIDITY_TEMPERATURE:
+            humidityTemperature = v[0];
+            humidityNanos = s.timestampNanos;
+            break;
+        case SensorIds.HUMIDITY:
+            humidity = v[0];
+            humidityNanos = s.timestampNanos;
+            break;
+        case SensorIds.GYROSCOPE:
+            gyroX = v[0];
+            gyroY = v[1];
+            gyroZ = v[2];
+            movementNanos = s.timestampNanos;
+            break;
+        case SensorIds.ACCELEROMETER:
+            accX = v[0];
+            accY = v[1];
+            accZ = v[2];
+            movementNanos = s.timestampNanos;
+            break;
+        case SensorIds.MAGNETOMETER:
+            magX = v[0];
+            magY = v[1];
+            magZ = v[2];
+            movementNanos = s.timestampNanos;
+            break;
+        case SensorIds.PRESSURE_TEMPERATURE:
+            pressureTemperature = v[0];
+            pressureNanos = s.timestampNanos;
+            break;
+        case SensorIds.PRESSURE:
+            pressure = v[0];
+            pressureNanos = s.timestampNanos;
+            break;
+        case SensorIds.LIGHT:
+            light = v[0];
+            opticalNanos = s.timestampNanos;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Hands the ten readings to out as samples from pool, each stamped with the time of its service and tagged with
+     * the device.
+     */
+    public void forEachSample(SamplePool pool, Consumer<Sample> out) {
+        out.accept(sample(pool).set(SensorIds.OBJECT_TEMPERATURE, temperatureNanos, objectTemperature));
+        out.accept(sample(pool).set(SensorIds.AMBIENT_TEMPERATURE, temperatureNanos, ambientTemperature));
+        out.accept(sample(pool).set(SensorIds.HUMIDITY_TEMPERATURE, humidityNanos, humidityTemperature));
+        out.accept(sample(pool).set(SensorIds.HUMIDITY, humidityNanos, humidity));
+        out.accept(sample(pool).set(SensorIds.GYROSCOPE, movementNanos, gyroX, gyroY, gyroZ));
+        out.accept(sample(pool).set(SensorIds.ACCELEROMETER, movementNanos, accX, accY, accZ));
+        out.accept(sample(pool).set(SensorIds.MAGNETOMETER, movementNanos, magX, magY, magZ));
+        out.accept(sample(pool).set(SensorIds.PRESSURE_TEMPERATURE, pressureNanos, pressureTemperature));
+        out.accept(sample(pool).set(SensorIds.PRESSURE, pressureNanos, pressure));
+        out.accept(sample(pool).set(SensorIds.LIGHT, opticalNanos, light));
+    }
+
+    /**
+     * Like {@link #forEachSample}, but only hands out the readings of services whose acquisition time changed since
+     * the last call, so a value is delivered once even when the reading is refreshed for another service.
+     * @return the number of samples handed out
+     */
+    public int forEachNewSample(SamplePool pool, Consumer<Sample> out) {
+        int n = 0;
+        if (temperatureNanos != sentTemperatureNanos) {
+            sentTemperatureNanos = temperatureNanos;
+            out.accept(sample(pool).set(SensorIds.OBJECT_TEMPERATURE, temperatureNanos, objectTemperature));
+            out.accept(sample(pool).set(SensorIds.AMBIENT_TEMPERATURE, temperatureNanos, ambientTemperature));
+            n += 2;
+        }
+        if (humidityNanos != sentHumidityNanos) {
+            sentHumidityNanos = humidityNanos;
+            out.accept(sample(pool).set(SensorIds.HUMIDITY_TEMPERATURE, humidityNanos, humidityTemperature));
+            out.accept(sample(pool).set(SensorIds.HUMIDITY, humidityNanos, humidity));
+            n += 2;
+        }
+        if (movementNanos != sentMovementNanos) {
+            sentMovementNanos = movementNanos;
+            out.accept(sample(pool).set(SensorIds.GYROSCOPE, movementNanos, gyroX, gyroY, gyroZ));
+            out.accept(sample(pool).set(SensorIds.ACCELEROMETER, movementNanos, accX, accY, accZ));
+            out.accept(sample(pool).set(SensorIds.MAGNETOMETER, movementNanos, magX, magY, magZ));
+            n += 3;
+        }
+        if (pressureNanos != sentPressureNanos) {
+            sentPressureNanos = pressureNanos;
+            out.accept(sample(pool).set(SensorIds.PRESSURE_TEMPERATURE, pressureNanos, pressureTemperature));
+            out.accept(sample(pool).set(SensorIds.PRESSURE, pressureNanos, pressure));
+            n += 2;
+        }
+        if (opticalNanos != sentOpticalNanos) {
+            sentOpticalNanos = opticalNanos;
+            out.accept(sample(pool).set(SensorIds.LIGHT, opticalNanos, light));
+            n++;
+        }
+        return n;
+    }
+
+    private Sample sample(SamplePool pool) {
+        Sample s = pool.acquire();
+        s.device = device;
+        return s;
+    }
+}
@@ -0,0 +1,280 @@
+package gateway;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable store-and-forward log for outgoing batches, so nothing is lost while the collector is unreachable.
+ *
+ * Batches are appended to fixed-size segment files that stay memory-mapped, which makes an append a CRC and a copy
+ * into the page cache. Each record is a 4-byte length, a 4-byte CRC32 of the payload and the payload itself; the
+ * length is written last, so a record cut short by a crash reads as the end of the log. The zero-filled tail of a
+ * segment marks where writing stopped.
+ *
+ * Records are read back in order with {@link #peek}/{@link #await} and removed with {@link #ack} once delivered. The
+ * read position is kept in a small mapped file next to the segments, so a restart replays only what was not yet
+ * acknowledged. Fully acknowledged segments are deleted. When the segments would exceed the disk budget, the oldest
+ * segment is dropped, acknowledged or not.
+ */
+public class Spool implements Closeable {
+    private static final int HEADER = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ACK_FILE = "spool.ack";
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<Long> segments = new ArrayDeque<Long>();
+    private final CRC32 crc = new CRC32();
+    private final MappedByteBuffer ackBuf;
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuf;
+    private long readSegment;
+    private MappedByteBuffer readBuf;
+    private int readOffset;
+    private long peekedSegment;
+    private int peekedOffset;
+    private int peekedLength;
+    private long droppedSegments;
+
+    public Spool(File dir, int segmentSize, long diskBudget) throws IOException {
+        if (segmentSize < 2 * HEADER)
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create spool directory " + dir);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, diskBudget / segmentSize);
+
+        long[] ids = listSegments();
+        for (long id : ids)
+            segments.addLast(id);
+        if (segments.isEmpty())
+            segments.addLast(0L);
+
+        writeSegment = segments.peekLast();
+        writeBuf = map(writeSegment);
+        writeBuf.position(findEnd(writeBuf));
+
+        ackBuf = mapAckFile();
+        long ackedSegment = ackBuf.getLong(0);
+        int ackedOffset = ackBuf.getInt(8);
+        if (ackedSegment < segments.peekFirst() || ackedSegment > writeSegment) {
+            ackedSegment = segments.peekFirst();
+            ackedOffset = 0;
+        }
+        while (segments.peekFirst() < ackedSegment)
+            deleteSegment(segments.removeFirst());
+        readSegment = ackedSegment;
+        readBuf = readSegment == writeSegment ? writeBuf : map(readSegment);
+        readOffset = ackedOffset;
+        persistAck();
+    }
+
+    /** Appends one record to the log. */
+    public void append(byte[] payload) throws IOException {
+        append(payload, 0, payload.length);
+    }
+
+    /** Appends len bytes of payload starting at off as one record. */
+    public synchronized void append(byte[] payload, int off, int len) throws IOException {
+        if (len <= 0 || len > segmentSize - HEADER)
+            throw new IllegalArgumentException("Record of " + len + " bytes does not fit a " + segmentSize
+                    + " byte segment");
+        if (writeBuf.remaining() < HEADER + len)
+            roll();
+
+        int pos = writeBuf.position();
+        crc.reset();
+        crc.update(payload, off, len);
+        writeBuf.putInt(pos + 4, (int) crc.getValue());
+        writeBuf.position(pos + HEADER);
+        writeBuf.put(payload, off, len);
+        writeBuf.putInt(pos, len);
+        notifyAll();
+    }
+
+    /**
+     * Returns the oldest record that was not acknowledged yet without removing it, or null if the reader has caught
+     * up with the writer.
+     */
+    public synchronized byte[] peek() {
+        while (true) {
+            if (readBuf.capacity() - readOffset >= HEADER) {
+                int len = readBuf.getInt(readOffset);
+                if (len > 0 && len <= readBuf.capacity() - readOffset - HEADER) {
+                    byte[] record = new byte[len];
+                    ByteBuffer view = readBuf.duplicate();
+                    view.position(readOffset + HEADER);
+                    view.get(record);
+                    crc.reset();
+                    crc.update(record, 0, len);
+                    if ((int) crc.getValue() == readBuf.getInt(readOffset + 4)) {
+                        peekedSegment = readSegment;
+                        peekedOffset = readOffset;
+                        peekedLength = len;
+                        return record;
+                    }
+                    System.err.println("Spool segment " + readSegment + " is corrupt at offset " + readOffset
+                            + ", skipping the rest of it");
+                    skipCorruptSegment();
+                    continue;
+                }
+            }
+            if (readSegment == writeSegment)
+                return null;
+            advanceReadSegment();
+        }
+    }
+
+    /**
+     * Waits up to timeout for a record to become available.
+     * @return the oldest unacknowledged record, or null if none arrived in time
+     */
+    public synchronized byte[] await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        byte[] record;
+        while ((record = peek()) == null) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return null;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return record;
+    }
+
+    /**
+     * Removes the record last returned by {@link #peek} or {@link #await}. Does nothing if the record was dropped
+     * with its segment in the meantime, because the disk budget ran out while it was being delivered.
+     */
+    public synchronized void ack() {
+        if (peekedLength == 0)
+            throw new IllegalStateException("No record to acknowledge");
+        int len = peekedLength;
+        peekedLength = 0;
+        if (peekedSegment != readSegment || peekedOffset != readOffset)
+            return;
+        readOffset += HEADER + len;
+        persistAck();
+    }
+
+    /** Number of whole segments thrown away because the disk budget was exhausted. */
+    public synchronized long getDroppedSegments() {
+        return droppedSegments;
+    }
+
+    /** Writes dirty pages of the current segment and the read position to disk. */
+    public synchronized void force() {
+        writeBuf.force();
+        ackBuf.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        force();
+    }
+
+    private void roll() throws IOException {
+        writeSegment++;
+        writeBuf = map(writeSegment);
+        segments.addLast(writeSegment);
+        while (segments.size() > maxSegments) {
+            long oldest = segments.peekFirst();
+            System.err.println("Spool disk budget exhausted, dropping segment " + oldest);
+            droppedSegments++;
+            if (oldest == readSegment)
+                advanceReadSegment();
+            else
+                deleteSegment(segments.removeFirst());
+        }
+    }
+
+    private void advanceReadSegment() {
+        deleteSegment(segments.removeFirst());
+        readSegment = segments.peekFirst();
+        try {
+            readBuf = readSegment == writeSegment ? writeBuf : map(readSegment);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map spool segment " + readSegment, e);
+        }
+        readOffset = 0;
+        persistAck();
+    }
+
+    /*
+     * Gives up on the rest of the segment being read. If the writer is still appending to it, it first moves on to a
+     * fresh segment, otherwise the reader would stop at the bad record until the segment is dropped.
+     */
+    private void skipCorruptSegment() {
+        long corrupt = readSegment;
+        if (corrupt == writeSegment) {
+            try {
+                roll();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create spool segment " + (writeSegment + 1), e);
+            }
+        }
+        /* rolling may already have dropped it for the disk budget */
+        if (readSegment == corrupt)
+            advanceReadSegment();
+    }
+
+    private void persistAck() {
+        ackBuf.putLong(0, readSegment);
+        ackBuf.putInt(8, readOffset);
+    }
+
+    private int findEnd(MappedByteBuffer buf) {
+        int pos = 0;
+        while (buf.capacity() - pos >= HEADER) {
+            int len = buf.getInt(pos);
+            if (len <= 0 || len > buf.capacity() - pos - HEADER)
+                break;
+            pos += HEADER + len;
+        }
+        return pos;
+    }
+
+    private MappedByteBuffer map(long id) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(id), "rw")) {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private MappedByteBuffer mapAckFile() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, ACK_FILE), "rw")) {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 16);
+        }
+    }
+
+    private void deleteSegment(long id) {
+        File f = segmentFile(id);
+        if (f.exists() && !f.delete())
+            System.err.println("Could not delete spool segment " + f);
+    }
+
+    private File segmentFile(long id) {
+        return new File(dir, String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private long[] listSegments() {
+        String[] names = dir.list((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (names == null)
+            return new long[0];
+        long[] ids = new long[names.length];
+        for (int i = 0; i < names.length; i++)
+            ids[i] = Long.parseLong(names[i].substring(0, names[i].length() - SEGMENT_SUFFIX.length()));
+        Arrays.sort(ids);
+        return ids;
+    }
+}
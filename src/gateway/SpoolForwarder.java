@@ -0,0 +1,68 @@
+package gateway;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains a {@link Spool} into an {@link Uplink} on its own thread. A record is removed from the spool only after the
+ * collector has confirmed receiving it (see {@link Uplink}); while the collector is unreachable or silent the
+ * backlog stays on disk and is replayed in order after the uplink reconnects.
+ */
+public class SpoolForwarder implements Closeable {
+    private static final long RETRY_MILLIS = 200;
+
+    private final Spool spool;
+    private final Uplink uplink;
+    private volatile boolean running;
+    private Thread thread;
+
+    public SpoolForwarder(Spool spool, Uplink uplink) {
+        this.spool = spool;
+        this.uplink = uplink;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this::forward, "spool-forwarder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    private void forward() {
+        try {
+            while (running) {
+                try {
+                    byte[] record = spool.await(1, TimeUnit.SECONDS);
+                    if (record == null)
+                        continue;
+                    if (uplink.send(record))
+                        spool.ack();
+                    else
+                        Thread.sleep(RETRY_MILLIS);
+                } catch (RuntimeException e) {
+                    /* keep forwarding: a dead forwarder would stop all delivery for good */
+                    System.err.println("Spool forwarding failed: " + e);
+                    Thread.sleep(RETRY_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
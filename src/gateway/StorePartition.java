@@ -0,0 +1,220 @@
+package gateway;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One hour of a {@link TimeSeriesStore}: a data file of 4 KiB pages, each holding the points of a single channel
+ * (device and sensor id), and an index file naming the channel of every page in the order the pages were allocated.
+ *
+ * The data file is memory-mapped in chunks of 8 MiB and only ever appended to: a channel fills its current page and
+ * then gets the next free one. The page header keeps the point count and the time range of the page, updated with
+ * every point, so a scan reads the headers of the pages of its channel only and skips the ones outside its range.
+ *
+ * Page layout: device number (int), sensor id and dimension (shorts), point count (int), unused (int), first and last
+ * timestamp in milliseconds (longs), then the points, each a timestamp relative to the start of the hour in
+ * milliseconds (int) and dimension floats. An index entry is the device number, sensor id and page number (ints).
+ *
+ * Not thread-safe; the store serialises access.
+ */
+final class StorePartition implements Closeable {
+    static final int PAGE_SIZE = 4096;
+    static final int HEADER = 32;
+    static final int CHUNK_PAGES = 2048;
+    static final long CHUNK_BYTES = (long) PAGE_SIZE * CHUNK_PAGES;
+    static final int INDEX_ENTRY = 12;
+
+    private final long startMillis;
+    private final boolean writable;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+    private final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+    /* channel of every page, by page number */
+    private int[] pageDevice = new int[256];
+    private int[] pageSensor = new int[256];
+    private int pages;
+    /* page being filled, by device * SensorIds.COUNT + sensor id, -1 for none */
+    private int[] current = new int[0];
+
+    /**
+     * Opens the partition starting at startMillis, creating it if writable and missing.
+     */
+    StorePartition(File dataFile, File indexFile, long startMillis, boolean writable) throws IOException {
+        this.startMillis = startMillis;
+        this.writable = writable;
+        if (writable) {
+            data = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } else {
+            data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+            index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        }
+        loadIndex();
+    }
+
+    long getStartMillis() {
+        return startMillis;
+    }
+
+    int getPages() {
+        return pages;
+    }
+
+    /** Appends a point of the channel, which must lie within the hour of the partition. */
+    void append(int device, int sensorId, long timestampMillis, float[] values, int dimension) throws IOException {
+        int key = device * SensorIds.COUNT + sensorId;
+        if (key >= current.length) {
+            int old = current.length;
+            current = Arrays.copyOf(current, Math.max(key + 1, old * 2));
+            Arrays.fill(current, old, current.length, -1);
+        }
+        int page = current[key];
+        int record = 4 + 4 * dimension;
+        ByteBuffer buf = page < 0 ? null : chunk(page);
+        int base = page < 0 ? 0 : offset(page);
+        if (page < 0 || HEADER + (buf.getInt(base + 8) + 1) * record > PAGE_SIZE) {
+            page = allocate(device, sensorId, dimension, timestampMillis);
+            current[key] = page;
+            buf = chunk(page);
+            base = offset(page);
+        }
+        int count = buf.getInt(base + 8);
+        int at = base + HEADER + count * record;
+        buf.putInt(at, (int) (timestampMillis - startMillis));
+        for (int i = 0; i < dimension; i++)
+            buf.putFloat(at + 4 + 4 * i, values[i]);
+        if (timestampMillis < buf.getLong(base + 16))
+            buf.putLong(base + 16, timestampMillis);
+        if (timestampMillis > buf.getLong(base + 24))
+            buf.putLong(base + 24, timestampMillis);
+        buf.putInt(base + 8, count + 1);
+    }
+
+    /** Hands the points of the channel from fromMillis to toMillis inclusive to visitor, page by page. */
+    void scan(int device, int sensorId, long fromMillis, long toMillis, String name,
+            SampleArchiveReader.Visitor visitor) throws IOException {
+        float[] values = new float[3];
+        for (int page = 0; page < pages; page++) {
+            if (pageDevice[page] != device || pageSensor[page] != sensorId)
+                continue;
+            ByteBuffer buf = chunk(page);
+            int base = offset(page);
+            if (buf.getLong(base + 24) < fromMillis || buf.getLong(base + 16) > toMillis)
+                continue;
+            int dimension = buf.getShort(base + 6);
+            int count = buf.getInt(base + 8);
+            int record = 4 + 4 * dimension;
+            for (int i = 0, at = base + HEADER; i < count; i++, at += record) {
+                long t = startMillis + buf.getInt(at);
+                if (t < fromMillis || t > toMillis)
+                    continue;
+                for (int c = 0; c < dimension; c++)
+                    values[c] = buf.getFloat(at + 4 + 4 * c);
+                visitor.onPoint(name, sensorId, t, values, dimension);
+            }
+        }
+    }
+
+    /** Writes the mapped pages out; the mappings themselves go away with the partition. */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writable) {
+                for (MappedByteBuffer chunk : chunks) {
+                    if (chunk != null)
+                        chunk.force();
+                }
+            }
+        } finally {
+            chunks.clear();
+            data.close();
+            index.close();
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        long entries = index.size() / INDEX_ENTRY;
+        ByteBuffer in = ByteBuffer.allocate((int) entries * INDEX_ENTRY);
+        while (in.hasRemaining() && index.read(in, in.position()) > 0) {
+        }
+        in.flip();
+        while (in.remaining() >= INDEX_ENTRY) {
+            int device = in.getInt();
+            int sensorId = in.getInt();
+            int page = in.getInt();
+            if (page != pages || (long) (page + 1) * PAGE_SIZE > data.size())
+                break;
+            record(page, device, sensorId);
+            if (writable) {
+                int key = device * SensorIds.COUNT + sensorId;
+                if (key >= current.length) {
+                    int old = current.length;
+                    current = Arrays.copyOf(current, Math.max(key + 1, old * 2));
+                    Arrays.fill(current, old, current.length, -1);
+                }
+                current[key] = page;
+            }
+        }
+        /* an entry cut short by a crash is overwritten by the next page */
+        if (writable)
+            index.truncate((long) pages * INDEX_ENTRY);
+    }
+
+    private int allocate(int device, int sensorId, int dimension, long timestampMillis) throws IOException {
+        int page = pages;
+        ByteBuffer buf = chunk(page);
+        int base = offset(page);
+        buf.putInt(base, device);
+        buf.putShort(base + 4, (short) sensorId);
+        buf.putShort(base + 6, (short) dimension);
+        buf.putInt(base + 8, 0);
+        buf.putLong(base + 16, timestampMillis);
+        buf.putLong(base + 24, timestampMillis);
+        entry.clear();
+        entry.putInt(device).putInt(sensorId).putInt(page).flip();
+        while (entry.hasRemaining())
+            index.write(entry, (long) page * INDEX_ENTRY + entry.position());
+        record(page, device, sensorId);
+        return page;
+    }
+
+    private void record(int page, int device, int sensorId) {
+        if (page == pageDevice.length) {
+            pageDevice = Arrays.copyOf(pageDevice, page * 2);
+            pageSensor = Arrays.copyOf(pageSensor, page * 2);
+        }
+        pageDevice[page] = device;
+        pageSensor[page] = sensorId;
+        pages = page + 1;
+    }
+
+    /* The mapped chunk holding page, mapping it on first use; writing extends the file a chunk at a time */
+    private MappedByteBuffer chunk(int page) throws IOException {
+        int n = page / CHUNK_PAGES;
+        while (chunks.size() <= n)
+            chunks.add(null);
+        MappedByteBuffer chunk = chunks.get(n);
+        if (chunk == null) {
+            long position = n * CHUNK_BYTES;
+            chunk = writable ? data.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_BYTES)
+                    : data.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_BYTES, data.size() - position));
+            chunks.set(n, chunk);
+        }
+        return chunk;
+    }
+
+    private static int offset(int page) {
+        return (page % CHUNK_PAGES) * PAGE_SIZE;
+    }
+}
@@ -0,0 +1,64 @@
+package gateway;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line access to a {@link TimeSeriesStore}, instead of grepping the data log:
+ *
+ * <pre>
+ * java -cp tinyb.jar gateway.StoreQuery &lt;store dir&gt; &lt;device&gt; &lt;sensor id&gt; &lt;minutes&gt; [step seconds]
+ * </pre>
+ *
+ * prints the readings of the last minutes of one sensor of a tag, in the format of the data log, or with a step one
+ * "count min max mean" line per step. The sensor is given by its legacy id, e.g. f000aa20-0451-b002 for humidity.
+ * The store may be written by a running gateway at the same time.
+ */
+public class StoreQuery {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: StoreQuery <store dir> <device> <sensor id> <minutes> [step seconds]");
+            System.exit(2);
+        }
+        final int sensorId = SensorIds.fromLegacyId(args[2]);
+        long to = System.currentTimeMillis();
+        long from = to - TimeUnit.MINUTES.toMillis(Long.parseLong(args[3]));
+        final TimestampFormatter timestamps = new TimestampFormatter();
+        final StringBuilder line = new StringBuilder(128);
+        TimeSeriesStore store = TimeSeriesStore.openReadOnly(new File(args[0]));
+        try {
+            if (args.length > 4) {
+                store.downsample(args[1], sensorId, from, to, TimeUnit.SECONDS.toMillis(Long.parseLong(args[4])),
+                        (start, count, min, max, mean, dimension) -> {
+                            line.setLength(0);
+                            line.append(timestamps.format(start)).append(' ').append(count);
+                            append(line.append(' '), min, dimension);
+                            append(line.append(' '), max, dimension);
+                            append(line.append(' '), mean, dimension);
+                            System.out.println(line);
+                        });
+            } else {
+                final SampleLineRenderer renderer = new SampleLineRenderer(timestamps);
+                final Sample sample = new Sample();
+                store.scan(args[1], sensorId, from, to, (device, id, t, values, dimension) -> {
+                    if (dimension == 3)
+                        sample.set(id, TimeUnit.MILLISECONDS.toNanos(t), values[0], values[1], values[2]);
+                    else
+                        sample.set(id, TimeUnit.MILLISECONDS.toNanos(t), values[0]);
+                    line.setLength(0);
+                    renderer.render(sample, line);
+                    System.out.print(line);
+                });
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void append(StringBuilder out, float[] values, int dimension) {
+        out.append(values[0]);
+        for (int i = 1; i < dimension; i++)
+            out.append(':').append(values[i]);
+    }
+}
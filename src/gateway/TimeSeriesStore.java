@@ -0,0 +1,341 @@
+package gateway;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Embedded store of the readings of every tag, answering "what did this sensor of this tag do between then and now"
+ * without reading anything but the pages of that sensor.
+ *
+ * Readings are kept in one {@link StorePartition} per hour (UTC), named yyyyMMddHH.tss with its page index in
+ * yyyyMMddHH.idx, plus devices.txt listing the tag addresses by number. The partition of the current hour and the
+ * one before it, for stragglers, stay mapped for writing; older ones are mapped read-only while a query needs them and
+ * deleted once older than retentionHours.
+ *
+ * Like {@link FileSink}, samples are offered to a bounded queue and written by a thread of its own, so offering
+ * never blocks; {@link #append} writes on the caller's thread instead. Queries run on the caller's thread and hold
+ * the writer off while they run, which the queue absorbs. Summaries are not stored.
+ *
+ * {@link #openReadOnly} opens a store for queries only, e.g. one a running gateway is writing to: it has no writer
+ * thread, never creates or deletes a file and maps every partition read-only.
+ *
+ * A point costs 8 bytes for scalars and 16 for vectors, plus a page header every 4 KiB: 50 tags at 10 Hz write about
+ * 50 KiB/s, 190 MiB an hour.
+ */
+public class TimeSeriesStore implements Closeable {
+    static final String DATA_SUFFIX = ".tss";
+    static final String INDEX_SUFFIX = ".idx";
+    static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /* buckets a downsampled read may return */
+    static final int MAX_BUCKETS = 100000;
+
+    /** Receives the buckets of a downsampled read; the arrays are reused and hold dimension entries. */
+    public interface BucketVisitor {
+        void onBucket(long startMillis, int count, float[] min, float[] max, float[] mean, int dimension);
+    }
+
+    private final File dir;
+    private final boolean writable;
+    private final int retentionHours;
+    private final Consumer<? super Sample> release;
+    private final ArrayBlockingQueue<Sample> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final List<String> devices = new ArrayList<String>();
+    private final Map<String, Integer> deviceNumbers = new HashMap<String, Integer>();
+    private final Writer deviceList;
+    /* partitions open for writing, by start */
+    private final TreeMap<Long, StorePartition> open = new TreeMap<Long, StorePartition>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private long newestMillis = Long.MIN_VALUE;
+
+    /**
+     * @param retentionHours hours of readings to keep
+     * @param release called with each sample once it has been stored or dropped, e.g. to return it to a pool
+     */
+    public TimeSeriesStore(File dir, int retentionHours, int queueCapacity, Consumer<? super Sample> release)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create store directory " + dir);
+        this.dir = dir;
+        this.writable = true;
+        this.retentionHours = retentionHours;
+        this.release = release;
+        this.queue = new ArrayBlockingQueue<Sample>(queueCapacity);
+        loadDevices();
+        deviceList = new OutputStreamWriter(new FileOutputStream(deviceListFile(), true), StandardCharsets.UTF_8);
+        writer = new Thread(this::write, "store-" + dir.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private TimeSeriesStore(File dir) throws IOException {
+        if (!dir.isDirectory())
+            throw new IOException("No store directory " + dir);
+        this.dir = dir;
+        this.writable = false;
+        this.retentionHours = Integer.MAX_VALUE;
+        this.release = null;
+        this.queue = null;
+        this.deviceList = null;
+        this.writer = null;
+        loadDevices();
+    }
+
+    /**
+     * Opens an existing store for {@link #scan}, {@link #downsample} and {@link #getDevices} only; offering or
+     * appending a sample throws IllegalStateException.
+     */
+    public static TimeSeriesStore openReadOnly(File dir) throws IOException {
+        return new TimeSeriesStore(dir);
+    }
+
+    /**
+     * Queues a sample for storing without blocking.
+     * @return false if the queue was full and the sample was dropped
+     */
+    public boolean offer(Sample sample) {
+        if (!writable)
+            throw new IllegalStateException("Store " + dir + " is open read-only");
+        if (queue.offer(sample))
+            return true;
+        dropped.incrementAndGet();
+        release.accept(sample);
+        return false;
+    }
+
+    /** Number of samples dropped because the writer could not keep up. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Stores a reading on the caller's thread; the sample is not released. */
+    public synchronized void append(Sample s) throws IOException {
+        if (!writable)
+            throw new IllegalStateException("Store " + dir + " is open read-only");
+        if (s.isSummary() || s.sensorId <= 0 || s.sensorId >= SensorIds.COUNT)
+            return;
+        long millis = s.timestampMillis();
+        long start = Math.floorDiv(millis, HOUR_MILLIS) * HOUR_MILLIS;
+        StorePartition partition = open.get(start);
+        if (partition == null) {
+            /* too late for a partition already closed */
+            if (newestMillis != Long.MIN_VALUE && start < newestMillis - HOUR_MILLIS)
+                return;
+            partition = new StorePartition(dataFile(start), indexFile(start), start, true);
+            open.put(start, partition);
+            if (start > newestMillis) {
+                newestMillis = start;
+                retire();
+            }
+        }
+        partition.append(deviceNumber(s.device), s.sensorId, millis, s.values, s.dimension);
+    }
+
+    /**
+     * Hands the readings of one sensor of a tag from fromMillis to toMillis inclusive to visitor, an hour at a time
+     * and in the order they were stored within each page; device is null for readings without one.
+     */
+    public synchronized void scan(String device, int sensorId, long fromMillis, long toMillis,
+            SampleArchiveReader.Visitor visitor) throws IOException {
+        Integer number = deviceNumbers.get(device == null ? "" : device);
+        if (number == null && !writable) {
+            /* the gateway writing the store may have met the tag since it was opened */
+            loadDevices();
+            number = deviceNumbers.get(device == null ? "" : device);
+        }
+        if (number == null)
+            return;
+        long first = Math.floorDiv(fromMillis, HOUR_MILLIS) * HOUR_MILLIS;
+        for (long start = first; start <= toMillis; start += HOUR_MILLIS) {
+            StorePartition partition = open.get(start);
+            if (partition != null) {
+                partition.scan(number, sensorId, fromMillis, toMillis, device, visitor);
+            } else if (dataFile(start).exists() && indexFile(start).exists()) {
+                try (StorePartition old = new StorePartition(dataFile(start), indexFile(start), start, false)) {
+                    old.scan(number, sensorId, fromMillis, toMillis, device, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one sensor of a tag from fromMillis to toMillis in buckets of stepMillis, aligned to fromMillis, handing
+     * the count, min, max and mean of every non-empty bucket to visitor in time order.
+     */
+    public void downsample(String device, int sensorId, long fromMillis, long toMillis, long stepMillis,
+            BucketVisitor visitor) throws IOException {
+        long n = stepMillis <= 0 ? -1 : (toMillis - fromMillis) / stepMillis + 1;
+        if (n <= 0 || n > MAX_BUCKETS)
+            throw new IllegalArgumentException("Cannot split " + fromMillis + ".." + toMillis + " into steps of "
+                    + stepMillis + " ms");
+        final int buckets = (int) n;
+        final int dimension = SensorIds.dimension(sensorId);
+        final int[] count = new int[buckets];
+        final float[] min = new float[buckets * dimension];
+        final float[] max = new float[buckets * dimension];
+        final double[] sum = new double[buckets * dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        scan(device, sensorId, fromMillis, toMillis, (d, id, t, values, dim) -> {
+            int b = (int) ((t - fromMillis) / stepMillis);
+            count[b]++;
+            for (int c = 0, i = b * dimension; c < dimension; c++, i++) {
+                min[i] = Math.min(min[i], values[c]);
+                max[i] = Math.max(max[i], values[c]);
+                sum[i] += values[c];
+            }
+        });
+        float[] lo = new float[dimension];
+        float[] hi = new float[dimension];
+        float[] mean = new float[dimension];
+        for (int b = 0; b < buckets; b++) {
+            if (count[b] == 0)
+                continue;
+            for (int c = 0, i = b * dimension; c < dimension; c++, i++) {
+                lo[c] = min[i];
+                hi[c] = max[i];
+                mean[c] = (float) (sum[i] / count[b]);
+            }
+            visitor.onBucket(fromMillis + b * stepMillis, count[b], lo, hi, mean, dimension);
+        }
+    }
+
+    /** Tag addresses with readings in the store. */
+    public synchronized List<String> getDevices() {
+        return new ArrayList<String>(devices);
+    }
+
+    /** Stores everything queued and closes the partitions. */
+    @Override
+    public void close() {
+        if (!writable)
+            return;
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (StorePartition partition : open.values())
+                closeQuietly(partition);
+            open.clear();
+            try {
+                deviceList.close();
+            } catch (IOException e) {
+                System.err.println("Store " + dir + " close failed: " + e);
+            }
+        }
+    }
+
+    private void write() {
+        while (running || !queue.isEmpty()) {
+            Sample s = null;
+            try {
+                s = running ? queue.poll(1, TimeUnit.SECONDS) : queue.poll();
+                if (s != null)
+                    append(s);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                System.err.println("Store " + dir + " write failed: " + e);
+            } finally {
+                if (s != null)
+                    release.accept(s);
+            }
+        }
+    }
+
+    /* Reads the devices listed in devices.txt that are not known yet; a line still being written is left for later */
+    private void loadDevices() throws IOException {
+        File list = deviceListFile();
+        if (!list.exists())
+            return;
+        String text = new String(Files.readAllBytes(list.toPath()), StandardCharsets.UTF_8);
+        String[] lines = text.split("\n", -1);
+        for (int i = devices.size(); i < lines.length - 1; i++) {
+            deviceNumbers.put(lines[i], devices.size());
+            devices.add(lines[i]);
+        }
+    }
+
+    private File deviceListFile() {
+        return new File(dir, "devices.txt");
+    }
+
+    private int deviceNumber(String device) throws IOException {
+        String name = device == null ? "" : device;
+        Integer number = deviceNumbers.get(name);
+        if (number != null)
+            return number;
+        deviceList.write(name + "\n");
+        deviceList.flush();
+        deviceNumbers.put(name, devices.size());
+        devices.add(name);
+        return devices.size() - 1;
+    }
+
+    /* Closes the partitions that will not get any more readings and deletes the ones past retention */
+    private void retire() {
+        for (Iterator<Map.Entry<Long, StorePartition>> it = open.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, StorePartition> e = it.next();
+            if (e.getKey() < newestMillis - HOUR_MILLIS) {
+                closeQuietly(e.getValue());
+                it.remove();
+            }
+        }
+        String oldest = name(newestMillis - retentionHours * HOUR_MILLIS);
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            String n = f.getName();
+            if ((n.endsWith(DATA_SUFFIX) || n.endsWith(INDEX_SUFFIX)) && n.compareTo(oldest) < 0 && !f.delete())
+                System.err.println("Could not delete " + f);
+        }
+    }
+
+    private void closeQuietly(StorePartition partition) {
+        try {
+            partition.close();
+        } catch (IOException e) {
+            System.err.println("Store " + dir + " close failed: " + e);
+        }
+    }
+
+    private File dataFile(long startMillis) {
+        return new File(dir, name(startMillis) + DATA_SUFFIX);
+    }
+
+    private File indexFile(long startMillis) {
+        return new File(dir, name(startMillis) + INDEX_SUFFIX);
+    }
+
+    private static String name(long startMillis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHH");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(startMillis));
+    }
+}
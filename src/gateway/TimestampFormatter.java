@@ -0,0 +1,44 @@
+package gateway;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Renders epoch milliseconds as "yyyy-MM-dd HH:mm:ss" for the human-readable sinks. All timestamps within the same
+ * second share one cached string, so a cycle's readings cost one formatting at most. Safe to share between threads.
+ */
+public class TimestampFormatter {
+    public static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private final DateTimeFormatter format;
+    private volatile Entry last = new Entry(Long.MIN_VALUE, null);
+
+    public TimestampFormatter() {
+        this(ZoneId.systemDefault());
+    }
+
+    public TimestampFormatter(ZoneId zone) {
+        this.format = DateTimeFormatter.ofPattern(PATTERN).withZone(zone);
+    }
+
+    public String format(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000L);
+        Entry e = last;
+        if (e.second != second) {
+            e = new Entry(second, format.format(Instant.ofEpochSecond(second)));
+            last = e;
+        }
+        return e.text;
+    }
+
+    private static final class Entry {
+        final long second;
+        final String text;
+
+        Entry(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
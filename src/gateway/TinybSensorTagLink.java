@@ -0,0 +1,272 @@
+package gateway;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothGattCharacteristic;
+
+/**
+ * A TI CC2650 SensorTag reached through TinyB. Its services, characteristics and configuration bytes come from
+ * {@link SensorProfiles#CC2650}, and its values are decoded with the compiled form of that profile.
+ *
+ * Values are pushed by the tag through a {@link NotificationPump} and stamped on arrival; {@link #poll} decodes the
+ * latest ones.
+ */
+public class TinybSensorTagLink implements SensorTagLink {
+    /*
+     * Slots of the value characteristics in the arrays below are the order of the services in the profile, which is
+     * also the slot order of AdaptiveRateController and the service order of the compiled profile
+     */
+    private static final int SLOTS = SensorProfiles.CC2650.getServices().size();
+    private static final String[] SERVICES = new String[SLOTS];
+    private static final String[] VALUES = new String[SLOTS];
+    private static final String[] CONFIGS = new String[SLOTS];
+    private static final String[] PERIODS = new String[SLOTS];
+    private static final String[][] CHARACTERISTICS = new String[SLOTS][];
+    /* what switches each sensor on */
+    private static final byte[][] ENABLE = new byte[SLOTS][];
+    static {
+        for (int i = 0; i < SLOTS; i++) {
+            SensorProfile.Service service = SensorProfiles.CC2650.getServices().get(i);
+            SERVICES[i] = service.getUuid();
+            VALUES[i] = service.getValue();
+            CONFIGS[i] = service.getConfig();
+            PERIODS[i] = service.getPeriod();
+            CHARACTERISTICS[i] = new String[] { VALUES[i], CONFIGS[i], PERIODS[i] };
+            ENABLE[i] = service.getEnable();
+        }
+    }
+    private static final Duration RESOLVE_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration CACHED_RESOLVE_TIMEOUT = Duration.ofSeconds(20);
+    public static final Duration DEFAULT_OPERATION_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final LatencyHistogram RESOLVE = Metrics.histogram("gatt.resolve");
+    private static final LatencyHistogram WRITE = Metrics.histogram("gatt.write");
+    private static final LatencyHistogram DECODE = Metrics.histogram("decode");
+    private static final Counter WRITE_ERRORS = Metrics.counter("errors.gatt.write");
+    private static final Counter DECODE_ERRORS = Metrics.counter("errors.decode");
+
+    private final BluetoothDevice device;
+    private final String address;
+    private final AcquisitionClock clock;
+    private final NotificationPump pump;
+    private final GattLayoutCache layouts;
+    private final Duration operationTimeout;
+    /* Layout found on the last connection, reused when the tag reconnects */
+    private GattLayout known;
+    private final CompiledProfile profile = SensorProfiles.decoder(SensorProfiles.CC2650.getName());
+    /* decoded samples only pass through into the reading being filled */
+    private final SamplePool scratch = new SamplePool(4);
+    private SensorTagReading target;
+    private final Consumer<Sample> fill = s -> {
+        target.set(s);
+        scratch.release(s);
+    };
+    private final AdaptiveRateController rates = new AdaptiveRateController();
+    private final BluetoothGattCharacteristic[] values = new BluetoothGattCharacteristic[SERVICES.length];
+    private final BluetoothGattCharacteristic[] configs = new BluetoothGattCharacteristic[SERVICES.length];
+    private final BluetoothGattCharacteristic[] periods = new BluetoothGattCharacteristic[SERVICES.length];
+    private final AtomicReferenceArray<byte[]> latest = new AtomicReferenceArray<byte[]>(SERVICES.length);
+    private final AtomicLongArray acquired = new AtomicLongArray(SERVICES.length);
+    private final Semaphore changed = new Semaphore(0);
+    private boolean subscribed;
+
+    /**
+     * @param pump the notification pump shared by all tags, already started
+     */
+    public TinybSensorTagLink(BluetoothDevice device, AcquisitionClock clock, NotificationPump pump) {
+        this(device, clock, pump, null);
+    }
+
+    /**
+     * @param pump the notification pump shared by all tags, already started
+     * @param layouts where GATT layouts are remembered across connections and restarts, or null
+     */
+    public TinybSensorTagLink(BluetoothDevice device, AcquisitionClock clock, NotificationPump pump,
+            GattLayoutCache layouts) {
+        this(device, clock, pump, layouts, DEFAULT_OPERATION_TIMEOUT);
+    }
+
+    /**
+     * @param pump the notification pump shared by all tags, already started
+     * @param layouts where GATT layouts are remembered across connections and restarts, or null
+     * @param operationTimeout how long a characteristic write may take before start() gives up on the tag
+     */
+    public TinybSensorTagLink(BluetoothDevice device, AcquisitionClock clock, NotificationPump pump,
+            GattLayoutCache layouts, Duration operationTimeout) {
+        this.device = device;
+        this.address = device.getAddress();
+        this.clock = clock;
+        this.pump = pump;
+        this.layouts = layouts;
+        this.operationTimeout = operationTimeout;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean connect() {
+        return device.connect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return device.getConnected();
+    }
+
+    @Override
+    public void disconnect() {
+        device.disconnect();
+    }
+
+    @Override
+    public boolean start() throws InterruptedException {
+        /*
+         * Services show up some time after connecting. A reconnecting tag, or one seen by an earlier run with the
+         * same firmware, has a known layout and is resolved with direct lookups. Otherwise the resolver takes whatever the tag already
+         * exposes and waits only for what is missing, up to a minute in all, and the layout found is cached.
+         */
+        long resolveStart = System.nanoTime();
+        GattResolver gatt = new GattResolver(device);
+        String modalias = layouts == null ? null : device.getModalias();
+        GattLayout layout = known;
+        if (layout == null && layouts != null)
+            layout = layouts.get(address, modalias);
+        boolean resolved = layout != null && gatt.resolve(layout, CACHED_RESOLVE_TIMEOUT);
+        if (!resolved) {
+            if (layout != null) {
+                System.err.println(address + " does not match its cached GATT layout any more");
+                if (layouts != null)
+                    layouts.remove(address, modalias);
+            }
+            resolved = gatt.resolve(SERVICES, CHARACTERISTICS, RESOLVE_TIMEOUT);
+            layout = resolved ? GattLayout.of(gatt, SERVICES, CHARACTERISTICS) : null;
+            if (layout != null && layouts != null)
+                layouts.put(address, modalias, layout);
+        }
+        known = layout;
+        RESOLVE.recordSince(resolveStart);
+        for (int i = 0; i < SERVICES.length; i++) {
+            values[i] = gatt.getCharacteristic(VALUES[i]);
+            configs[i] = gatt.getCharacteristic(CONFIGS[i]);
+            periods[i] = gatt.getCharacteristic(PERIODS[i]);
+        }
+        if (!resolved) {
+            System.err.println(address + " does not have all the services and characteristics we need");
+            return false;
+        }
+
+        for (int i = 0; i < SERVICES.length; i++)
+            write(configs[i], ENABLE[i]);
+        /*
+         * Periods are in units of 10 ms. The rate controller starts every sensor at the default second except
+         * movement, which notifies at 10 Hz until the tag has been still for a while; poll() adjusts them as the
+         * values come in.
+         */
+        rates.reset();
+        for (int i = 0; i < SERVICES.length; i++)
+            write(periods[i], new byte[] { (byte) rates.getPeriod(i) });
+
+        /*
+         * Instead of reading every characteristic each cycle, ask the tag to push value changes. The pump keeps the
+         * latest raw value of each characteristic, stamped when it arrives, and wakes poll() whenever one changes.
+         */
+        subscribed = true;
+        for (int i = 0; i < SERVICES.length; i++) {
+            final int slot = i;
+            boolean notifying = pump.subscribe(values[i], (characteristic, value) -> {
+                acquired.set(slot, clock.now());
+                latest.set(slot, value);
+                changed.release();
+            }, layout == null || layout.canNotify(VALUES[i]));
+            if (!notifying)
+                System.out.println(address + " refused notifications for " + VALUES[i] + ", polling it");
+        }
+        return true;
+    }
+
+    @Override
+    public boolean poll(SensorTagReading reading, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!changed.tryAcquire(timeout, unit))
+            return false;
+        changed.drainPermits();
+        /*
+         * Services decode independently: one without a value yet, e.g. because the tag refused its notifications, or
+         * with a short one, is left out and keeps its old acquisition time, so it yields no samples this cycle.
+         */
+        long decodeStart = System.nanoTime();
+        int decoded = 0;
+        target = reading;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            byte[] value = latest.get(slot);
+            if (value == null)
+                continue;
+            if (profile.decode(slot, value, acquired.get(slot), address, scratch, fill)) {
+                decoded++;
+            } else {
+                DECODE_ERRORS.increment();
+                System.err.println(address + ": discarding a short value of " + VALUES[slot]);
+            }
+        }
+        if (decoded == 0)
+            return false;
+        DECODE.recordSince(decodeStart);
+        reading.device = address;
+
+        int changed = rates.update(reading);
+        for (int i = 0; changed != 0; i++, changed >>>= 1) {
+            if ((changed & 1) != 0)
+                writePeriod(i, rates.getPeriod(i));
+        }
+        return true;
+    }
+
+    private void write(BluetoothGattCharacteristic characteristic, byte[] value) {
+        long start = System.nanoTime();
+        try {
+            characteristic.writeValue(value, operationTimeout);
+        } catch (RuntimeException e) {
+            WRITE_ERRORS.increment();
+            throw e;
+        } finally {
+            WRITE.recordSince(start);
+        }
+    }
+
+    /* Written without waiting, so a slow write never delays the readings */
+    private void writePeriod(int slot, int period) {
+        final long start = System.nanoTime();
+        periods[slot].writeValueAsync(new byte[] { (byte) period }).whenComplete((written, failure) -> {
+            WRITE.recordSince(start);
+            if (failure != null || !written) {
+                WRITE_ERRORS.increment();
+                System.err.println(address + ": could not set the period of " + SERVICES[slot] + " to "
+                        + period * 10 + " ms" + (failure != null ? ": " + failure : ""));
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        if (subscribed) {
+            for (BluetoothGattCharacteristic value : values)
+                pump.unsubscribe(value);
+            subscribed = false;
+        }
+        for (int i = 0; i < SERVICES.length; i++)
+            latest.set(i, null);
+        changed.drainPermits();
+    }
+}
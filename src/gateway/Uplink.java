@@ -0,0 +1,188 @@
+package gateway;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * A single long-lived TCP connection to the collector, shared by everything on the gateway that ships data.
+ *
+ * Each call to {@link #send} writes one frame on the same stream: a 4-byte big-endian payload length followed by
+ * the payload. The collector reads frames until the gateway goes away instead of reading one message per
+ * connection.
+ *
+ * After each frame the collector answers with a 4-byte big-endian count of the frames it has received on this
+ * connection, and send() returns true only once that count covers the frame. A frame that was written but not
+ * confirmed, because the connection dropped or the ack timed out, counts as failed and is sent again by the caller,
+ * so the collector may see a frame twice but never misses one that was reported as sent.
+ *
+ * Connecting happens inline, on the thread that calls send(): the first send after the connection dropped tries to
+ * connect, which can block it for up to the connect timeout. A failed attempt starts an exponentially growing
+ * backoff, and sends during the backoff fail fast without touching the network, so a dead collector costs the caller
+ * at most one connect timeout per backoff period. Waiting for the ack is bounded by the ack timeout the same way.
+ * Call it from a thread that may block that long, like the {@link SpoolForwarder}, never from the sampling loop.
+ */
+public class Uplink implements Closeable {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 3000;
+    public static final int DEFAULT_ACK_TIMEOUT_MILLIS = 10000;
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 250;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final LatencyHistogram CONNECT = Metrics.histogram("uplink.connect");
+    private static final LatencyHistogram SEND = Metrics.histogram("uplink.send");
+    private static final Counter FRAMES = Metrics.counter("uplink.frames");
+    private static final Counter BYTES = Metrics.counter("uplink.bytes");
+    private static final Counter ERRORS = Metrics.counter("errors.uplink");
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final int ackTimeoutMillis;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private Socket socket;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private int sentFrames;
+    private long backoffMillis;
+    private long nextAttemptNanos;
+    private long connects;
+    private long failures;
+    private boolean closed;
+
+    public Uplink(String host, int port) {
+        this(host, port, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_ACK_TIMEOUT_MILLIS, DEFAULT_MIN_BACKOFF_MILLIS,
+                DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    public Uplink(String host, int port, int connectTimeoutMillis, int ackTimeoutMillis, long minBackoffMillis,
+            long maxBackoffMillis) {
+        if (minBackoffMillis <= 0 || maxBackoffMillis < minBackoffMillis)
+            throw new IllegalArgumentException("Invalid backoff range " + minBackoffMillis + ".." + maxBackoffMillis);
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.backoffMillis = minBackoffMillis;
+        this.nextAttemptNanos = System.nanoTime();
+    }
+
+    /**
+     * Sends one frame holding the whole payload and waits for the collector to confirm it.
+     * @return true if the collector acknowledged the frame, false if it is unreachable right now
+     */
+    public boolean send(byte[] payload) {
+        return send(payload, 0, payload.length);
+    }
+
+    /**
+     * Sends one frame holding len bytes of payload starting at off and waits for the collector to confirm it.
+     * @return true if the collector acknowledged the frame, false if it is unreachable right now
+     */
+    public synchronized boolean send(byte[] payload, int off, int len) {
+        if (!ensureConnected())
+            return false;
+        long start = System.nanoTime();
+        try {
+            out.writeInt(len);
+            out.write(payload, off, len);
+            out.flush();
+            sentFrames++;
+            int received = in.readInt();
+            if (received != sentFrames)
+                throw new IOException("Collector acknowledged frame " + received + ", expected " + sentFrames);
+            SEND.recordSince(start);
+            FRAMES.increment();
+            BYTES.add(4 + len);
+            return true;
+        } catch (SocketTimeoutException e) {
+            drop(new IOException("No ack from the collector within " + ackTimeoutMillis + " ms"));
+            return false;
+        } catch (IOException e) {
+            drop(e);
+            return false;
+        }
+    }
+
+    public synchronized boolean isConnected() {
+        return socket != null;
+    }
+
+    /** Number of connections opened so far, including the first one. */
+    public synchronized long getConnects() {
+        return connects;
+    }
+
+    /** Number of failed connection attempts and dropped connections. */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeSocket();
+    }
+
+    private boolean ensureConnected() {
+        if (socket != null)
+            return true;
+        if (closed || System.nanoTime() - nextAttemptNanos < 0)
+            return false;
+
+        Socket s = new Socket();
+        long start = System.nanoTime();
+        try {
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            s.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            s.setSoTimeout(ackTimeoutMillis);
+            CONNECT.recordSince(start);
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+            in = new DataInputStream(s.getInputStream());
+            sentFrames = 0;
+            socket = s;
+            connects++;
+            backoffMillis = minBackoffMillis;
+            return true;
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+            drop(e);
+            return false;
+        }
+    }
+
+    private void drop(IOException cause) {
+        System.err.println("Uplink to " + host + ":" + port + " failed, retrying in " + backoffMillis + " ms: " + cause);
+        closeSocket();
+        failures++;
+        ERRORS.increment();
+        nextAttemptNanos = System.nanoTime() + backoffMillis * 1000000L;
+        backoffMillis = Math.min(backoffMillis * 2, maxBackoffMillis);
+    }
+
+    private void closeSocket() {
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        out = null;
+        in = null;
+    }
+}
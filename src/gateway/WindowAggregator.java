@@ -0,0 +1,193 @@
+package gateway;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Streaming aggregation of scalar readings into window summaries (count, min, max, mean) per device and sensor id,
+ * placed in front of the uplink so it carries one summary per window instead of every reading.
+ *
+ * Windows are aligned to the epoch and slide by slideMillis; a tumbling window is one whose slide equals its length.
+ * Each series keeps one accumulator (count, min, max, sum) per slide-long pane of its window, so a summary costs
+ * O(1) memory whatever the reading rate, and a reading is added to exactly one pane. When a reading arrives past the
+ * end of the current pane, every window ending there is summarised and handed on. Readings arriving after their pane
+ * closed are counted in the current one.
+ *
+ * Only the sensor ids given are aggregated; other readings, and all vector readings, pass through unchanged. Readings
+ * that are aggregated are passed through as well when passRaw is set, and released to the pool otherwise.
+ *
+ * Sessions call {@link #accept} concurrently; each series is locked separately.
+ */
+public class WindowAggregator implements Consumer<Sample> {
+    private final long windowNanos;
+    private final long slideNanos;
+    private final int panes;
+    private final boolean[] aggregated = new boolean[SensorIds.COUNT];
+    private final boolean passRaw;
+    private final SamplePool pool;
+    private final Consumer<Sample> out;
+    private final ConcurrentHashMap<String, Series[]> series = new ConcurrentHashMap<String, Series[]>();
+
+    /**
+     * @param windowMillis window length, a multiple of slideMillis
+     * @param sensorIds the scalar sensors to aggregate
+     * @param pool where summaries come from and where aggregated readings go back to unless passed through
+     * @param out receives summaries and passed-through readings
+     */
+    public WindowAggregator(long windowMillis, long slideMillis, int[] sensorIds, boolean passRaw, SamplePool pool,
+            Consumer<Sample> out) {
+        if (slideMillis <= 0 || windowMillis < slideMillis || windowMillis % slideMillis != 0)
+            throw new IllegalArgumentException("Window of " + windowMillis + " ms cannot slide by " + slideMillis
+                    + " ms");
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.slideNanos = TimeUnit.MILLISECONDS.toNanos(slideMillis);
+        this.panes = (int) (windowMillis / slideMillis);
+        for (int id : sensorIds) {
+            if (SensorIds.dimension(id) != 1)
+                throw new IllegalArgumentException("Only scalar sensors can be aggregated, not " + id);
+            aggregated[id] = true;
+        }
+        this.passRaw = passRaw;
+        this.pool = pool;
+        this.out = out;
+    }
+
+    /** Tumbling windows. */
+    public WindowAggregator(long windowMillis, int[] sensorIds, boolean passRaw, SamplePool pool,
+            Consumer<Sample> out) {
+        this(windowMillis, windowMillis, sensorIds, passRaw, pool, out);
+    }
+
+    @Override
+    public void accept(Sample s) {
+        if (s.sensorId <= 0 || s.sensorId >= SensorIds.COUNT || !aggregated[s.sensorId] || s.isSummary()) {
+            out.accept(s);
+            return;
+        }
+        Series[] bySensor = series.get(key(s.device));
+        if (bySensor == null)
+            bySensor = series.computeIfAbsent(key(s.device), d -> new Series[SensorIds.COUNT]);
+        Series target;
+        synchronized (bySensor) {
+            target = bySensor[s.sensorId];
+            if (target == null)
+                target = bySensor[s.sensorId] = new Series(s.device, s.sensorId);
+        }
+        target.add(s.timestampNanos, s.values[0]);
+        if (passRaw)
+            out.accept(s);
+        else
+            pool.release(s);
+    }
+
+    /**
+     * Summarises every window that ends at or before watermarkNanos, for series whose readings stopped or slowed
+     * down. Call it periodically with a watermark a little behind the acquisition clock.
+     */
+    public void advance(long watermarkNanos) {
+        long pane = Math.floorDiv(watermarkNanos, slideNanos);
+        for (Series[] bySensor : series.values()) {
+            for (int i = 0; i < bySensor.length; i++) {
+                Series s;
+                synchronized (bySensor) {
+                    s = bySensor[i];
+                }
+                if (s != null)
+                    s.advanceTo(pane);
+            }
+        }
+    }
+
+    /** Summarises everything still open, for shutdown. */
+    public void flush() {
+        for (Series[] bySensor : series.values()) {
+            for (int i = 0; i < bySensor.length; i++) {
+                Series s;
+                synchronized (bySensor) {
+                    s = bySensor[i];
+                }
+                if (s != null)
+                    s.advanceTo(Long.MAX_VALUE / 2);
+            }
+        }
+    }
+
+    private static String key(String device) {
+        return device == null ? "" : device;
+    }
+
+    private final class Series {
+        private final String device;
+        private final int sensorId;
+        /* accumulators of the last panes, indexed by pane number modulo panes */
+        private final int[] count = new int[panes];
+        private final float[] min = new float[panes];
+        private final float[] max = new float[panes];
+        private final double[] sum = new double[panes];
+        /* pane readings are currently added to, -1 before the first reading */
+        private long current = -1;
+
+        Series(String device, int sensorId) {
+            this.device = device;
+            this.sensorId = sensorId;
+        }
+
+        synchronized void add(long timestampNanos, float value) {
+            long pane = Math.floorDiv(timestampNanos, slideNanos);
+            if (current < 0)
+                current = pane;
+            else if (pane > current)
+                advanceTo(pane);
+            int i = slot(current);
+            if (count[i] == 0) {
+                min[i] = value;
+                max[i] = value;
+            } else {
+                min[i] = Math.min(min[i], value);
+                max[i] = Math.max(max[i], value);
+            }
+            count[i]++;
+            sum[i] += value;
+        }
+
+        /* Closes the panes before pane, summarising the window that ends with each */
+        synchronized void advanceTo(long pane) {
+            if (current < 0 || pane <= current)
+                return;
+            long last = Math.min(pane - 1, current + panes - 1);
+            for (long closing = current; closing <= last; closing++) {
+                emit(closing);
+                count[slot(closing + 1)] = 0;
+                sum[slot(closing + 1)] = 0;
+            }
+            current = pane;
+        }
+
+        private void emit(long lastPane) {
+            int n = 0;
+            float lo = Float.POSITIVE_INFINITY;
+            float hi = Float.NEGATIVE_INFINITY;
+            double total = 0;
+            for (int i = 0; i < panes; i++) {
+                if (count[i] == 0)
+                    continue;
+                n += count[i];
+                lo = Math.min(lo, min[i]);
+                hi = Math.max(hi, max[i]);
+                total += sum[i];
+            }
+            if (n == 0)
+                return;
+            long end = (lastPane + 1) * slideNanos;
+            Sample summary = pool.acquire().summary(sensorId, end - windowNanos, windowNanos, n, lo, hi,
+                    (float) (total / n));
+            summary.device = device;
+            out.accept(summary);
+        }
+
+        private int slot(long pane) {
+            return (int) Math.floorMod(pane, (long) panes);
+        }
+    }
+}
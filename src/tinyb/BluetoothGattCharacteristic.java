@@ -25,6 +25,7 @@
 package tinyb;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.time.Duration;
 
 /**
@@ -33,6 +34,8 @@ import java.time.Duration;
   */
 public class BluetoothGattCharacteristic extends BluetoothObject
 {
+    private volatile String deviceKey;
+
     public native BluetoothType getBluetoothType();
     public native BluetoothGattCharacteristic clone();
 
@@ -81,6 +84,46 @@ public class BluetoothGattCharacteristic extends BluetoothObject
       */
     public native boolean writeValue(byte[] argValue);
 
+    /** Reads the value of this characteristic without blocking the caller. The read
+      * runs on a small shared pool of threads, together with at most a few other reads
+      * and writes of the same device; further ones wait their turn, so several reads
+      * of one device are pipelined rather than issued one after another.
+      * @return A future completed with the value of this characteristic, or
+      * exceptionally if the read failed or too many operations are queued for the device
+      */
+    public CompletableFuture<byte[]> readValueAsync() {
+        return GattOperationExecutor.submit(deviceKey(), this::readValue);
+    }
+
+    /** Reads the value of this characteristic, waiting at most timeout for the device
+      * to answer.
+      * @return A std::vector<unsgined char> containing the value of this characteristic.
+      * @throws BluetoothException if the read failed or did not finish in time
+      */
+    public byte[] readValue(Duration timeout) {
+        return GattOperationExecutor.await(readValueAsync(), timeout, "readValue of " + getUuid());
+    }
+
+    /** Writes the value of this characteristic, waiting at most timeout for the device
+      * to answer.
+      * @return TRUE if value was written succesfully
+      * @throws BluetoothException if the write failed or did not finish in time
+      */
+    public boolean writeValue(byte[] argValue, Duration timeout) {
+        return GattOperationExecutor.await(writeValueAsync(argValue), timeout, "writeValue of " + getUuid());
+    }
+
+    /** Writes the value of this characteristic without blocking the caller, on the
+      * same pool and per-device limits as readValueAsync().
+      * @param[in] arg_value The data to be written; it is copied before returning
+      * @return A future completed with TRUE if the value was written succesfully, or
+      * exceptionally if the write failed or too many operations are queued for the device
+      */
+    public CompletableFuture<Boolean> writeValueAsync(byte[] argValue) {
+        final byte[] value = argValue.clone();
+        return GattOperationExecutor.submit(deviceKey(), () -> writeValue(value));
+    }
+
     public native boolean startNotify();
 
     public native boolean stopNotify();
@@ -118,6 +161,18 @@ public class BluetoothGattCharacteristic extends BluetoothObject
       */
     public native List<BluetoothGattDescriptor> getDescriptors();
 
+    /* Address of the device, naming its lane in GattOperationExecutor */
+    String deviceKey() {
+        String key = deviceKey;
+        if (key == null) {
+            BluetoothGattService service = getService();
+            BluetoothDevice device = service == null ? null : service.getDevice();
+            key = device == null ? "" : device.getAddress();
+            deviceKey = key;
+        }
+        return key;
+    }
+
     private native void init(BluetoothGattCharacteristic obj);
 
     private native void delete();
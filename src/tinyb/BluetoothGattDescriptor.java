@@ -25,6 +25,8 @@
 package tinyb;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.time.Duration;
 
 /**
   * Provides access to Bluetooth GATT descriptor. Follows the BlueZ adapter API
@@ -50,6 +52,41 @@ public class BluetoothGattDescriptor extends BluetoothObject
       */
     public native boolean writeValue(byte[] argValue);
 
+    /** Reads the value of this descriptor without blocking the caller, in the lane of
+      * its device, like BluetoothGattCharacteristic.readValueAsync().
+      * @return A future completed with the data from this descriptor
+      */
+    public CompletableFuture<byte[]> readValueAsync() {
+        return GattOperationExecutor.submit(deviceKey(), this::readValue);
+    }
+
+    /** Writes the value of this descriptor without blocking the caller, in the lane of
+      * its device. The value is copied before returning.
+      * @return A future completed with TRUE if value was written succesfully
+      */
+    public CompletableFuture<Boolean> writeValueAsync(byte[] argValue) {
+        final byte[] value = argValue.clone();
+        return GattOperationExecutor.submit(deviceKey(), () -> writeValue(value));
+    }
+
+    /** Reads the value of this descriptor, waiting at most timeout for the device to
+      * answer.
+      * @return A vector<uchar> containing data from this descriptor
+      * @throws BluetoothException if the read failed or did not finish in time
+      */
+    public byte[] readValue(Duration timeout) {
+        return GattOperationExecutor.await(readValueAsync(), timeout, "readValue of " + getUuid());
+    }
+
+    /** Writes the value of this descriptor, waiting at most timeout for the device to
+      * answer.
+      * @return TRUE if value was written succesfully
+      * @throws BluetoothException if the write failed or did not finish in time
+      */
+    public boolean writeValue(byte[] argValue, Duration timeout) {
+        return GattOperationExecutor.await(writeValueAsync(argValue), timeout, "writeValue of " + getUuid());
+    }
+
     /* D-Bus property accessors: */
     /** Get the UUID of this descriptor.
       * @return The 128 byte UUID of this descriptor, NULL if an error occurred
@@ -66,6 +103,12 @@ public class BluetoothGattDescriptor extends BluetoothObject
       */
     public native byte[] getValue();
 
+    /* Address of the device, naming its lane in GattOperationExecutor */
+    private String deviceKey() {
+        BluetoothGattCharacteristic characteristic = getCharacteristic();
+        return characteristic == null ? "" : characteristic.deviceKey();
+    }
+
     private native void delete();
 
     private BluetoothGattDescriptor(long instance)
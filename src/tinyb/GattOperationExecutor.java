@@ -0,0 +1,137 @@
+package tinyb;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+  * Runs the blocking GATT calls behind the asynchronous variants such as
+  * BluetoothGattCharacteristic.readValueAsync(). Calls run on a bounded pool of daemon
+  * threads (tinyb.async.threads, 8 by default). Each device has a lane that lets at most
+  * tinyb.async.perDevice calls (2 by default) run at once; the rest wait in the lane, up to
+  * tinyb.async.queue calls per device, in submission order. A call submitted to a full lane
+  * fails with a RejectedExecutionException.
+  *
+  * A call whose caller gave up is skipped if it is still waiting in its lane, but a call
+  * that already started keeps its thread until the Bluetooth stack answers it, so a device
+  * may never hold more than a quarter of the pool: a few tags with stuck native calls must
+  * not starve the calls of all the others.
+  */
+class GattOperationExecutor
+{
+    static final int THREADS = Integer.getInteger("tinyb.async.threads", 8);
+    static final int IN_FLIGHT_PER_DEVICE = Math.max(1, Math.min(
+            Integer.getInteger("tinyb.async.perDevice", 2), THREADS / 4));
+    static final int QUEUE_PER_DEVICE = Integer.getInteger("tinyb.async.queue", 64);
+
+    private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread t = new Thread(r, "tinyb-gatt");
+                t.setDaemon(true);
+                return t;
+            });
+    static {
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+    private static class Lane
+    {
+        final ArrayDeque<Runnable> pending = new ArrayDeque<Runnable>();
+        int inFlight;
+    }
+
+    private GattOperationExecutor()
+    {
+    }
+
+    /** Runs call in the lane of the given device.
+      * @return A future completed with the result of call, or exceptionally with what it threw
+      */
+    static <T> CompletableFuture<T> submit(String device, Callable<T> call)
+    {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        Runnable task = () -> {
+            try {
+                if (!result.isDone())
+                    result.complete(call.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                next(device);
+            }
+        };
+
+        synchronized (lanes) {
+            Lane lane = lanes.get(device);
+            if (lane == null) {
+                lane = new Lane();
+                lanes.put(device, lane);
+            }
+            if (lane.inFlight < IN_FLIGHT_PER_DEVICE) {
+                lane.inFlight++;
+            } else if (lane.pending.size() < QUEUE_PER_DEVICE) {
+                lane.pending.add(task);
+                return result;
+            } else {
+                result.completeExceptionally(new RejectedExecutionException(
+                        "Too many GATT operations queued for " + device));
+                return result;
+            }
+        }
+        pool.execute(task);
+        return result;
+    }
+
+    /** Waits up to timeout for the result of a call submitted here.
+      * On timeout or interrupt the future is failed, so a call still waiting in its lane is
+      * never started; one that already started keeps running until the Bluetooth stack
+      * answers it.
+      * @throws BluetoothException if the call failed, timed out or the wait was interrupted
+      */
+    static <T> T await(CompletableFuture<T> result, Duration timeout, String operation)
+    {
+        try {
+            return result.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            BluetoothException failure = new BluetoothException(operation + " timed out after "
+                    + timeout.toMillis() + " ms");
+            result.completeExceptionally(failure);
+            throw failure;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new BluetoothException(operation + " failed: " + cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            BluetoothException failure = new BluetoothException(operation + " interrupted");
+            result.completeExceptionally(failure);
+            throw failure;
+        }
+    }
+
+    /* Called when a call of the device finished: start its next waiting call or free the slot */
+    private static void next(String device)
+    {
+        Runnable next;
+        synchronized (lanes) {
+            Lane lane = lanes.get(device);
+            next = lane.pending.poll();
+            if (next == null && --lane.inFlight == 0)
+                lanes.remove(device);
+        }
+        if (next != null)
+            pool.execute(next);
+    }
+}